@@ -7,6 +7,7 @@ import javax.swing.Timer;
 import javax.sound.midi.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A controller for playing midi and scanning Gui concurrently.
@@ -57,6 +58,9 @@ public class CompositeController extends GUIController {
     keyPressedMap.put(87, new TempoDown()); // w
     keyPressedMap.put(69, new TempoUp()); // e
 
+    keyPressedMap.put(90, new Undo()); // z
+    keyPressedMap.put(89, new Redo()); // y
+
     KeyboardListener listener = new KeyboardListener();
     listener.setKeyPressedMap(keyPressedMap);
     listener.setKeyReleasedMap(keyReleasedMap);
@@ -231,7 +235,7 @@ public class CompositeController extends GUIController {
     ActionListener al = new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
-        model.editNote(note, NoteField.DURATION, Integer.toString(note.getDuration() + 1));
+        model.editNote(note, NoteEdit.NONE.extend(1));
         gui.moveLine(true);
       }
     };
@@ -361,14 +365,7 @@ public class CompositeController extends GUIController {
      * @return whether the given note matches the note at the current beat
      */
     public boolean noteMatch(OctavePitch p, int curBeat) {
-
-      for (Note n : gui.getNoteMap().get(curBeat)) {
-        if (n.getPitch().equals(p)) {
-          return true;
-        }
-      }
-
-      return false;
+      return model.notesAtPitch(p.getIndex(), curBeat, curBeat + 1).next();
     }
 
 
@@ -379,30 +376,12 @@ public class CompositeController extends GUIController {
      * @return the corresponding OctavePitch
      */
     public OctavePitch getPitchFromKeyboard(int kv, boolean sharp) {
-      int oct;
-      Pitch p;
       if (sharp) {
-        p = Pitch.CSHARP;
-        for (int i = 2, j = 0; j < kv % 5; i++) {
-          if (Pitch.pitchOrder.get(i).name.contains("#")) {
-            p = Pitch.pitchOrder.get(i);
-            j++;
-          }
-        }
-        oct = kv / 5;
+        return OctavePitch.fromBlackKey(kv);
       }
       else {
-        p = Pitch.C;
-        for (int i = 1, j = 0; j < kv % 7; i++) {
-          if (!Pitch.pitchOrder.get(i).name.contains("#")) {
-            p = Pitch.pitchOrder.get(i);
-            j++;
-          }
-        }
-
-        oct = kv / 7;
+        return OctavePitch.fromWhiteKey(kv);
       }
-      return new OctavePitch(p, oct);
     }
   }
 
@@ -410,14 +389,21 @@ public class CompositeController extends GUIController {
 
 
   /**
-   * Increases the tempo of the song by decreasing 1 ms/beat
+   * Increases the tempo of the song by decreasing 1 ms/beat, down to 1 ms/beat
    */
   class TempoUp implements Runnable {
 
     @Override
     public void run() {
-      comp.getModel().setTempo(comp.getModel().getTempo() - 1000);
-      comp.midi.setBpm(60000000 / comp.getModel().getTempo());
+      // the tempo is read and changed together, so a change still queued on the model is
+      // not lost; the MIDI view picks up the new tempo from its TEMPO_CHANGED event, which
+      // an ActorMusicModel only sends once the change is applied
+      comp.getModel().batch(new Consumer<IMusicModel>() {
+        @Override
+        public void accept(IMusicModel m) {
+          m.setTempo(Math.max(1000, m.getTempo() - 1000));
+        }
+      });
     }
   }
 
@@ -428,8 +414,37 @@ public class CompositeController extends GUIController {
 
     @Override
     public void run() {
-      comp.getModel().setTempo(comp.getModel().getTempo() + 1000);
-      comp.midi.setBpm(60000000 / comp.getModel().getTempo());
+      // the tempo is read and changed together, so a change still queued on the model is
+      // not lost; the MIDI view picks up the new tempo from its TEMPO_CHANGED event, which
+      // an ActorMusicModel only sends once the change is applied
+      comp.getModel().batch(new Consumer<IMusicModel>() {
+        @Override
+        public void accept(IMusicModel m) {
+          m.setTempo(m.getTempo() + 1000);
+        }
+      });
+    }
+  }
+
+  /**
+   * Undoes the last change to the song.
+   */
+  class Undo implements Runnable {
+
+    @Override
+    public void run() {
+      comp.getModel().undo(); // the MIDI view follows an undone tempo change on its own
+    }
+  }
+
+  /**
+   * Redoes the last change undone.
+   */
+  class Redo implements Runnable {
+
+    @Override
+    public void run() {
+      comp.getModel().redo();
     }
   }
 
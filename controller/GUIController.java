@@ -141,7 +141,7 @@ public class GUIController implements IMusicController {
     ActionListener al = new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
-        model.editNote(note, NoteField.DURATION, Integer.toString(note.getDuration() + 1));
+        model.editNote(note, NoteEdit.NONE.extend(1));
         gui.moveLine(true);
       }
     };
@@ -229,30 +229,12 @@ public class GUIController implements IMusicController {
      * @return the corresponding OctavePitch
      */
     public OctavePitch getPitchFromKeyboard(int kv, boolean sharp) {
-      int oct;
-      Pitch p;
       if (sharp) {
-        p = Pitch.CSHARP;
-        for (int i = 2, j = 0; j < kv % 5; i++) {
-          if (Pitch.pitchOrder.get(i).name.contains("#")) {
-            p = Pitch.pitchOrder.get(i);
-            j++;
-          }
-        }
-        oct = kv / 5;
+        return OctavePitch.fromBlackKey(kv);
       }
       else {
-        p = Pitch.C;
-        for (int i = 1, j = 0; j < kv % 7; i++) {
-          if (!Pitch.pitchOrder.get(i).name.contains("#")) {
-            p = Pitch.pitchOrder.get(i);
-            j++;
-          }
-        }
-
-        oct = kv / 7;
+        return OctavePitch.fromWhiteKey(kv);
       }
-      return new OctavePitch(p, oct);
     }
   }
 
@@ -0,0 +1,476 @@
+package cs3500.music.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * An {@code IMusicModel} that makes every change on its own model thread. Each change is
+ * queued as a command on a bounded lock-free queue and the method returns at once, so the
+ * Swing thread never waits on model work. The model thread takes the commands in batches,
+ * applies each batch to a {@code MusicModel} in one {@code batch}, so indexing is shared
+ * across a burst of input, and then publishes a snapshot of the result.
+ *
+ * <p>Every read is answered from the last published snapshot, so a read made just after a
+ * change may not see it yet; {@code awaitApplied} waits until it will. A change that reads
+ * the model before changing it, such as raising the tempo, should be given to {@code batch}
+ * so that the read and the change happen together on the model thread. Listeners are called
+ * on the model thread, after the snapshot they should read has been published.</p>
+ */
+public final class ActorMusicModel implements IMusicModel {
+
+  private static final int CAPACITY = 4096;
+  private static final int MAX_BATCH = 1024;
+
+  private final MusicModel model; // only touched by the model thread
+  private final CommandQueue<Consumer<MusicModel>> commands = new CommandQueue<>(CAPACITY);
+  private final List<ModelListener> listeners = new CopyOnWriteArrayList<>();
+  private final List<ModelEvent> outbox = new ArrayList<>(); // events of the current batch
+  private final List<CountDownLatch> waiting = new ArrayList<>(); // released once published
+  private final List<Consumer<MusicModel>> own = new ArrayList<>(); // queued by the model thread
+  private final Thread thread;
+  private volatile ModelSnapshot published;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs an empty model and starts its model thread.
+   */
+  public ActorMusicModel() {
+    this(new MusicModel());
+  }
+
+  /**
+   * Constructs a model holding the given model and starts its model thread.
+   * @param model the model to take over, which must not be used directly afterwards
+   */
+  public ActorMusicModel(MusicModel model) {
+    this.model = Objects.requireNonNull(model);
+    model.addListener(new ModelListener() {
+      @Override
+      public void modelChanged(ModelEvent e) {
+        outbox.add(e);
+      }
+    });
+    this.published = model.snapshot();
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, "music-model");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Takes commands off the queue and applies them in batches until shut down.
+   */
+  private void loop() {
+    List<Consumer<MusicModel>> batch = new ArrayList<>();
+    while (running || !commands.isEmpty() || !own.isEmpty()) {
+      Consumer<MusicModel> c;
+      while (batch.size() < MAX_BATCH && (c = commands.poll()) != null) {
+        batch.add(c);
+      }
+      batch.addAll(own);
+      own.clear();
+      if (batch.isEmpty()) {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+        continue;
+      }
+      model.batch(m -> {
+        for (Consumer<MusicModel> command : batch) {
+          try {
+            command.accept(model);
+          }
+          catch (RuntimeException e) {
+            e.printStackTrace();
+          }
+          model.endAction(); // each command is undone on its own, not the whole batch
+        }
+      });
+      batch.clear();
+      published = model.snapshot();
+      for (CountDownLatch done : waiting) {
+        done.countDown();
+      }
+      waiting.clear();
+      List<ModelEvent> events = new ArrayList<>(outbox);
+      outbox.clear();
+      for (ModelEvent e : events) {
+        for (ModelListener l : listeners) {
+          try {
+            l.modelChanged(e);
+          }
+          catch (RuntimeException ex) {
+            ex.printStackTrace(); // one bad listener must not stop the model thread
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Queues the given command for the model thread, waiting only if the queue is full. A
+   * command queued by the model thread itself, from a listener or another command, is kept
+   * aside for its next batch instead, as it could never make room in the queue by waiting.
+   * @param command the command
+   * @throws IllegalStateException if the model has been shut down or its thread has died
+   */
+  private void submit(Consumer<MusicModel> command) {
+    if (!running) {
+      throw new IllegalStateException("The model has been shut down");
+    }
+    if (Thread.currentThread() == thread) {
+      own.add(command);
+      return;
+    }
+    checkAlive();
+    while (!commands.offer(command)) {
+      LockSupport.unpark(thread);
+      Thread.yield();
+      checkAlive(); // a dead thread will never make room
+    }
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Makes sure the model thread is still there to apply commands.
+   * @throws IllegalStateException if the model thread has died
+   */
+  private void checkAlive() {
+    if (!thread.isAlive()) {
+      throw new IllegalStateException("The model thread has stopped");
+    }
+  }
+
+  /**
+   * Waits until every change queued before this call has been applied and published.
+   * @throws InterruptedException if the waiting thread is interrupted
+   * @throws IllegalStateException if the model thread dies before then, or this is the model
+   *     thread, which would wait for itself
+   */
+  public void awaitApplied() throws InterruptedException {
+    if (Thread.currentThread() == thread) {
+      throw new IllegalStateException("The model thread cannot wait for its own changes");
+    }
+    CountDownLatch done = new CountDownLatch(1);
+    submit(m -> waiting.add(done));
+    while (!done.await(10, TimeUnit.MILLISECONDS)) {
+      if (!thread.isAlive() && done.getCount() > 0) {
+        throw new IllegalStateException("The model thread has stopped");
+      }
+    }
+  }
+
+  /**
+   * Stops the model thread once every change already queued has been applied. No changes
+   * can be queued afterwards.
+   */
+  public void shutdown() {
+    running = false;
+    LockSupport.unpark(thread);
+  }
+
+  @Override
+  public void addNote(Note n) {
+    submit(m -> m.addNote(n));
+  }
+
+  @Override
+  public void addAll(Collection<Note> notes) {
+    List<Note> copy = new ArrayList<>(notes);
+    submit(m -> m.addAll(copy));
+  }
+
+  /**
+   * Queues the given change, to be made on the model thread as part of one batch. The change
+   * is given the underlying model, so it must not keep it or hand it to another thread.
+   * @param change  the change to make
+   */
+  @Override
+  public void batch(Consumer<IMusicModel> change) {
+    submit(m -> change.accept(m));
+  }
+
+  @Override
+  public void addListener(ModelListener l) {
+    listeners.add(l);
+  }
+
+  @Override
+  public void removeListener(ModelListener l) {
+    listeners.remove(l);
+  }
+
+  @Override
+  public void removeNote(Note n) {
+    submit(m -> m.removeNote(n));
+  }
+
+  /**
+   * Queues an edit to the given note. The model thread edits a copy of the note, so the given
+   * note is left as it is; the edited note can be read from the snapshot once it is applied.
+   */
+  @Override
+  public void editNote(Note n, NoteField nf, String change) {
+    Note copy = PackedNote.toNote(PackedNote.pack(n));
+    submit(m -> m.editNote(copy, nf, change));
+  }
+
+  /**
+   * Queues an edit to the given note, and makes the same edit to the note itself on the
+   * calling thread, so the note can be edited again straight away. The model thread only
+   * edits a copy of the note. An edit that would not leave a valid note is found straight
+   * away.
+   * @throws IllegalArgumentException if the edited note would not be a valid note
+   */
+  @Override
+  public void editNote(Note n, NoteEdit edit) {
+    long old = PackedNote.pack(n);
+    long key = edit.apply(old);
+    Note copy = PackedNote.toNote(old);
+    submit(m -> m.editNote(copy, edit));
+    PackedNote.copyTo(key, n);
+  }
+
+  @Override
+  public void setDuration(Note n, int duration) {
+    editNote(n, NoteEdit.NONE.duration(duration));
+  }
+
+  @Override
+  public void setPitch(Note n, int index) {
+    editNote(n, NoteEdit.NONE.pitch(index));
+  }
+
+  @Override
+  public void shift(Note n, int beats) {
+    editNote(n, NoteEdit.NONE.shift(beats));
+  }
+
+  @Override
+  public void combine(IMusicModel other, int insert) {
+    // combining with itself reads the model on the model thread
+    submit(m -> m.combine(other == this ? m : other, insert));
+  }
+
+  @Override
+  public void combineAll(List<IMusicModel> others, int[] offsets) {
+    List<IMusicModel> copy = new ArrayList<>(others);
+    int[] at = offsets.clone();
+    submit(m -> {
+      copy.replaceAll(x -> x == this ? m : x);
+      m.combineAll(copy, at);
+    });
+  }
+
+  @Override
+  public void addRepeat(Repeat r) {
+    submit(m -> m.addRepeat(r));
+  }
+
+  @Override
+  public void setPitchRange() {
+    submit(MusicModel::setPitchRange);
+  }
+
+  @Override
+  public void setBeatXPitch() {
+    submit(MusicModel::setBeatXPitch);
+  }
+
+  @Override
+  public int getBeatXPitch(int beat, OctavePitch p) {
+    return published.getBeatXPitch(beat, p);
+  }
+
+  @Override
+  public void setTempo(int tempo) {
+    submit(m -> m.setTempo(tempo));
+  }
+
+  @Override
+  public void setRepeats(Map<Integer, Repeat> reps) {
+    Map<Integer, Repeat> copy = new HashMap<>(reps);
+    submit(m -> m.setRepeats(copy));
+  }
+
+  @Override
+  public void setMultiEnding(MultiEnding m) {
+    submit(x -> x.setMultiEnding(m));
+  }
+
+  @Override
+  public void insertTime(int beat, int beats) {
+    if (beat < 0 || beats < 0) {
+      throw new IllegalArgumentException("Cannot insert a negative amount of time");
+    }
+    submit(m -> m.insertTime(beat, beats));
+  }
+
+  @Override
+  public void deleteTime(int beat, int beats) {
+    if (beat < 0 || beats < 0) {
+      throw new IllegalArgumentException("Cannot delete a negative amount of time");
+    }
+    submit(m -> m.deleteTime(beat, beats));
+  }
+
+  @Override
+  public void undo() {
+    submit(MusicModel::undo);
+  }
+
+  @Override
+  public void redo() {
+    submit(MusicModel::redo);
+  }
+
+  @Override
+  public int length() {
+    return published.length();
+  }
+
+  @Override
+  public long getVersion() {
+    return published.getVersion();
+  }
+
+  @Override
+  public int getNoteCount() {
+    return published.getNoteCount();
+  }
+
+  @Override
+  public Fingerprint getFingerprint() {
+    return published.getFingerprint();
+  }
+
+  @Override
+  public int getMeasureNoteCount(int measure) {
+    return published.getMeasureNoteCount(measure);
+  }
+
+  @Override
+  public long getMeasureVersion(int measure) {
+    return published.getMeasureVersion(measure);
+  }
+
+  @Override
+  public void sortNotes() {
+    // the notes are always kept in order of their start beat
+  }
+
+  @Override
+  public void sortPitches() {
+    submit(MusicModel::sortPitches);
+  }
+
+  @Override
+  public List<Note> getNotes() {
+    return published.getNotes();
+  }
+
+  @Override
+  public NoteCursor cursor() {
+    return published.cursor();
+  }
+
+  @Override
+  public NoteCursor cursor(int start, int end) {
+    return published.cursor(start, end);
+  }
+
+  @Override
+  public NoteCursor notesAtPitch(int index, int start, int end) {
+    return published.notesAtPitch(index, start, end);
+  }
+
+  @Override
+  public NoteCursor notesInRect(int start, int end, int low, int high) {
+    return published.notesInRect(start, end, low, high);
+  }
+
+  @Override
+  public List<Note> notesAt(int beat) {
+    return published.notesAt(beat);
+  }
+
+  @Override
+  public List<Note> notesInWindow(int start, int end) {
+    return published.notesInWindow(start, end);
+  }
+
+  @Override
+  public ModelSnapshot snapshot() {
+    return published;
+  }
+
+  @Override
+  public int getTempo() {
+    return published.getTempo();
+  }
+
+  @Override
+  public Signature getSig() {
+    return published.getSig();
+  }
+
+  @Override
+  public ArrayList<OctavePitch> getPitchRange() {
+    return new ArrayList<>(published.getPitchRange());
+  }
+
+  @Override
+  public Map<Integer, Repeat> getRepeats() {
+    return published.getRepeats();
+  }
+
+  @Override
+  public MultiEnding getMultiEnding() {
+    return published.getMultiEnding();
+  }
+
+  @Override
+  public String printMusic() {
+    return published.printMusic();
+  }
+
+  @Override
+  public void printMusic(Appendable out, int start, int end) throws IOException {
+    published.printMusic(out, start, end);
+  }
+
+  @Override
+  public String toString() {
+    return printMusic();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    else if (o instanceof ActorMusicModel) {
+      return this.published.sameMusic(((ActorMusicModel) o).published);
+    }
+    else {
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return published.getFingerprint().hashCode();
+  }
+}
@@ -0,0 +1,195 @@
+package cs3500.music.model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * The grid of beats by pitches that a {@code MusicModel} prints, kept as two bitsets per beat:
+ * one marking the pitches that a note starts on at that beat, and one marking the pitches that
+ * a note is still sounding on. Pitches are numbered by {@code OctavePitch.getIndex}, so the
+ * grid does not change shape when the model's pitch range does.
+ */
+final class BeatGrid {
+
+  private static final int WORDS = (OctavePitch.COUNT + 63) / 64; // longs per bitset
+
+  private long[] onsets = new long[0];
+  private long[] sustains = new long[0];
+
+  /**
+   * Empties this grid.
+   */
+  void clear() {
+    Arrays.fill(onsets, 0);
+    Arrays.fill(sustains, 0);
+  }
+
+  /**
+   * Marks a note on this grid, but only at the beats in the window [from, to).
+   * @param start     the note's start beat
+   * @param duration  the note's duration
+   * @param pitch     the index of the note's pitch
+   * @param from      the first beat that may be marked
+   * @param to        the beat after the last beat that may be marked
+   */
+  void add(int start, int duration, int pitch, int from, int to) {
+    int last = Math.min(start + duration, to);
+    ensureBeats(last);
+    int word = pitch >>> 6;
+    long bit = 1L << pitch;
+    if (start >= from && start < to) {
+      onsets[start * WORDS + word] |= bit;
+    }
+    for (int b = Math.max(start + 1, from); b < last; b++) {
+      sustains[b * WORDS + word] |= bit;
+    }
+  }
+
+  /**
+   * Marks a note on this grid.
+   * @param start     the note's start beat
+   * @param duration  the note's duration
+   * @param pitch     the index of the note's pitch
+   */
+  void add(int start, int duration, int pitch) {
+    add(start, duration, pitch, start, start + duration);
+  }
+
+  /**
+   * Unmarks the given pitch at the beats [from, to).
+   * @param from  the first beat to unmark
+   * @param to    the beat after the last beat to unmark
+   * @param pitch the index of the pitch
+   */
+  void clear(int from, int to, int pitch) {
+    int word = pitch >>> 6;
+    long mask = ~(1L << pitch);
+    int last = Math.min(to, onsets.length / WORDS);
+    for (int b = from; b < last; b++) {
+      onsets[b * WORDS + word] &= mask;
+      sustains[b * WORDS + word] &= mask;
+    }
+  }
+
+  /**
+   * What this grid holds at the given beat and pitch.
+   * @param beat  the beat
+   * @param pitch the index of the pitch
+   * @return 1 if a note starts there, 0 if a note is sounding there, or -1 otherwise
+   */
+  int get(int beat, int pitch) {
+    int i = beat * WORDS + (pitch >>> 6);
+    if (i >= onsets.length) {
+      return -1;
+    }
+    long bit = 1L << pitch;
+    if ((onsets[i] & bit) != 0) {
+      return 1;
+    }
+    return (sustains[i] & bit) != 0 ? 0 : -1;
+  }
+
+  /**
+   * Writes the same text as {@code print}, for the given notes, building a grid of only the
+   * beats [start, end) rather than using a grid of the whole piece.
+   * @param out     where to write the grid
+   * @param notes   the notes
+   * @param lowest  the index of the lowest pitch in use, or -1 if there are no notes
+   * @param highest the index of the highest pitch in use
+   * @param start   the first beat to write a line for
+   * @param end     the beat after the last beat to write a line for
+   * @throws IOException if the output fails
+   */
+  static void printWindow(Appendable out, NoteTree notes, int lowest, int highest, int start,
+                          int end) throws IOException {
+    int last = Math.max(0, notes.maxEnd() - 1);
+    int from = Math.max(0, start);
+    int to = Math.min(end, last + 1);
+    BeatGrid grid = new BeatGrid();
+    NoteCursor c = notes.cursor(from, to);
+    while (c.next()) {
+      grid.add(c.getStart(), c.getDuration(), c.getPitchIndex(), from, to);
+    }
+    grid.print(out, last, lowest, highest, start, end);
+  }
+
+  /**
+   * Writes this grid as the text {@code IMusicModel.printMusic} gives: a header line of the
+   * pitches from lowest to highest, then a line for each of the beats [start, end) up to the
+   * last beat. Lines are separated, not ended, by a newline.
+   * @param out     where to write the grid
+   * @param last    the last beat of the music
+   * @param lowest  the index of the lowest pitch in use, or -1 if there are no notes
+   * @param highest the index of the highest pitch in use
+   * @param start   the first beat to write a line for
+   * @param end     the beat after the last beat to write a line for
+   * @throws IOException if the output fails
+   */
+  void print(Appendable out, int last, int lowest, int highest, int start, int end)
+          throws IOException {
+    int width = Integer.toString(last).length();
+    int pitches = lowest == -1 ? 0 : highest - lowest + 1;
+    // every line is built in this one buffer, then written out whole
+    char[] line = new char[width + 5 * pitches];
+    CharBuffer view = CharBuffer.wrap(line);
+    Arrays.fill(line, ' ');
+    for (int p = 0; p < pitches; p++) {
+      String name = OctavePitch.fromIndex(lowest + p).toString();
+      int mid = (int) Math.ceil((5.0 - (double) name.length()) / 2);
+      name.getChars(0, name.length(), line, width + 5 * p + mid);
+    }
+    writeLine(out, line, view);
+    for (int b = Math.max(0, start); b < Math.min(end, last + 1); b++) {
+      out.append('\n');
+      Arrays.fill(line, ' ');
+      int digits = 1;
+      for (int rest = b / 10; rest > 0; rest /= 10) {
+        digits++;
+      }
+      for (int i = digits - 1, rest = b; i >= 0; i--, rest /= 10) {
+        line[i] = (char) ('0' + rest % 10);
+      }
+      for (int p = 0; p < pitches; p++) {
+        switch (get(b, lowest + p)) {
+          case(0): line[width + 5 * p + 2] = '|';
+          break;
+          case(1): line[width + 5 * p + 2] = 'X';
+          break;
+          default: break;
+        }
+      }
+      writeLine(out, line, view);
+    }
+  }
+
+  /**
+   * Writes a whole line buffer to the given output, without copying it into a String when
+   * the output can take characters directly.
+   * @param out   where to write the line
+   * @param line  the line
+   * @param view  a CharBuffer wrapping the line
+   * @throws IOException if the output fails
+   */
+  private static void writeLine(Appendable out, char[] line, CharBuffer view)
+          throws IOException {
+    if (out instanceof Writer) {
+      ((Writer) out).write(line);
+    }
+    else if (out instanceof StringBuilder) {
+      ((StringBuilder) out).append(line);
+    }
+    else {
+      out.append(view, 0, line.length);
+    }
+  }
+
+  private void ensureBeats(int beats) {
+    if (beats * WORDS > onsets.length) {
+      int capacity = Math.max(beats, onsets.length / WORDS * 2) * WORDS;
+      onsets = Arrays.copyOf(onsets, capacity);
+      sustains = Arrays.copyOf(sustains, capacity);
+    }
+  }
+}
@@ -9,11 +9,6 @@ public class ByPitch implements Comparator<OctavePitch> {
 
   @Override
   public int compare(OctavePitch p1, OctavePitch p2) {
-    if (p1.oct == p2.oct) {
-      return Pitch.pitchOrder.indexOf(p1.pitch) - Pitch.pitchOrder.indexOf(p2.pitch);
-    }
-    else {
-      return p1.oct - p2.oct;
-    }
+    return p1.getIndex() - p2.getIndex();
   }
 }
@@ -0,0 +1,162 @@
+package cs3500.music.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells the listeners of a {@code MusicModel} about its changes. While the model is in a
+ * batch, events are held back and merged: a note added then removed is never told about,
+ * changes to the same note become one edit, and past {@code LIMIT} note events they are all
+ * folded into a single {@code NOTES_CHANGED} event covering their region.
+ */
+final class ChangeNotifier {
+
+  private static final int LIMIT = 256;
+
+  private final List<ModelListener> listeners = new CopyOnWriteArrayList<>();
+  private final List<ModelEvent> queued = new ArrayList<>();
+  private int held; // how many batches are open
+  private int queuedNotes; // how many of the queued events are note events
+  private boolean folded; // whether note events are being folded into one region
+  private int from;
+  private int to;
+  private int low;
+  private int high;
+
+  void addListener(ModelListener l) {
+    listeners.add(l);
+  }
+
+  void removeListener(ModelListener l) {
+    listeners.remove(l);
+  }
+
+  /**
+   * Holds back events until the matching {@code release}.
+   */
+  void hold() {
+    held++;
+  }
+
+  /**
+   * Ends a batch, telling the listeners about its events if it was the outermost one.
+   */
+  void release() {
+    if (--held > 0) {
+      return;
+    }
+    List<ModelEvent> events = new ArrayList<>(queued);
+    if (folded) {
+      events.add(0, ModelEvent.notes(from, to, low, high));
+    }
+    queued.clear();
+    queuedNotes = 0;
+    folded = false;
+    for (ModelEvent e : events) {
+      fire(e);
+    }
+  }
+
+  void noteAdded(long key) {
+    if (!listeners.isEmpty()) {
+      post(ModelEvent.note(ModelEvent.Type.NOTE_ADDED, -1, key));
+    }
+  }
+
+  void noteRemoved(long key) {
+    if (!listeners.isEmpty()) {
+      post(ModelEvent.note(ModelEvent.Type.NOTE_REMOVED, key, -1));
+    }
+  }
+
+  void noteEdited(long oldKey, long newKey) {
+    if (!listeners.isEmpty()) {
+      post(ModelEvent.note(ModelEvent.Type.NOTE_EDITED, oldKey, newKey));
+    }
+  }
+
+  void notesChanged(int start, int end) {
+    if (!listeners.isEmpty()) {
+      post(ModelEvent.notes(start, end, 0, OctavePitch.COUNT - 1));
+    }
+  }
+
+  void changed(ModelEvent.Type type) {
+    if (!listeners.isEmpty()) {
+      post(ModelEvent.whole(type));
+    }
+  }
+
+  private void post(ModelEvent e) {
+    if (held == 0) {
+      fire(e);
+    }
+    else if (!e.isNoteChange()) {
+      for (int i = queued.size() - 1; i >= 0; i--) {
+        if (queued.get(i).getType() == e.getType()) {
+          queued.remove(i);
+        }
+      }
+      queued.add(e);
+    }
+    else if (folded) {
+      widen(e);
+    }
+    else {
+      queueNote(e);
+    }
+  }
+
+  /**
+   * Queues a note event, merging it with an earlier event for the same note.
+   */
+  private void queueNote(ModelEvent e) {
+    long oldKey = e.getOldKey();
+    long newKey = e.getNewKey();
+    if (oldKey != -1) {
+      for (int i = queued.size() - 1; i >= 0; i--) {
+        ModelEvent p = queued.get(i);
+        if (p.isNoteChange() && p.getNewKey() == oldKey) {
+          queued.remove(i);
+          queuedNotes--;
+          oldKey = p.getOldKey();
+          if (oldKey == newKey) {
+            return; // added then removed, or edited back to how it was
+          }
+          ModelEvent.Type type = oldKey == -1 ? ModelEvent.Type.NOTE_ADDED
+                  : newKey == -1 ? ModelEvent.Type.NOTE_REMOVED : ModelEvent.Type.NOTE_EDITED;
+          e = ModelEvent.note(type, oldKey, newKey);
+          break;
+        }
+      }
+    }
+    queued.add(e);
+    if (++queuedNotes > LIMIT) {
+      folded = true;
+      from = Integer.MAX_VALUE;
+      to = 0;
+      low = OctavePitch.COUNT;
+      high = -1;
+      for (int i = queued.size() - 1; i >= 0; i--) {
+        if (queued.get(i).isNoteChange()) {
+          widen(queued.remove(i));
+        }
+      }
+      queuedNotes = 0;
+    }
+  }
+
+  private void widen(ModelEvent e) {
+    from = Math.min(from, e.getStart());
+    to = Math.max(to, e.getEnd());
+    low = Math.min(low, e.getLowPitch());
+    high = Math.max(high, e.getHighPitch());
+  }
+
+  private void fire(ModelEvent e) {
+    for (ModelListener l : listeners) {
+      l.modelChanged(e);
+    }
+  }
+}
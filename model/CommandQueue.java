@@ -0,0 +1,70 @@
+package cs3500.music.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue that many threads can add to without locking, and that one thread takes
+ * from. It is a ring of slots: an adding thread claims the next position with a
+ * compare-and-set, then fills its slot, and the taking thread empties slots in order.
+ *
+ * @param <T> the type of the things in the queue
+ */
+final class CommandQueue<T> {
+
+  private final AtomicReferenceArray<T> slots;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong(); // the next position to be claimed
+  private final AtomicLong head = new AtomicLong(); // the next position to be taken
+
+  /**
+   * Constructs an empty queue.
+   * @param capacity  the most things the queue can hold, rounded up to a power of two
+   */
+  CommandQueue(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Adds the given thing to the back of this queue, unless the queue is full.
+   * @param t the thing to add, which must not be null
+   * @return true if it was added, false if the queue was full
+   */
+  boolean offer(T t) {
+    while (true) {
+      long position = tail.get();
+      if (position - head.get() > mask) {
+        return false;
+      }
+      if (tail.compareAndSet(position, position + 1)) {
+        slots.lazySet((int) position & mask, t);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Takes the thing at the front of this queue. Must only be called by the one taking thread.
+   * @return the thing, or null if the queue is empty or its front slot is still being filled
+   */
+  T poll() {
+    long position = head.get();
+    int i = (int) position & mask;
+    T t = slots.get(i);
+    if (t != null) {
+      slots.lazySet(i, null);
+      head.lazySet(position + 1);
+    }
+    return t;
+  }
+
+  /**
+   * Whether this queue has nothing in it, or nothing that has finished being added.
+   * @return true if there is nothing to take
+   */
+  boolean isEmpty() {
+    return tail.get() == head.get();
+  }
+}
@@ -0,0 +1,466 @@
+package cs3500.music.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * An {@code IMusicModel} that can be shared by several threads, such as the Swing thread
+ * painting it, the MIDI view playing it and the controllers' timers editing it. It wraps a
+ * {@code MusicModel} behind a {@code StampedLock}:
+ *
+ * <ul>
+ *   <li>every change takes the write lock, so there is only ever one writer;</li>
+ *   <li>simple values, such as the tempo, version and note count, are read optimistically,
+ *   without locking unless a write got in the way;</li>
+ *   <li>{@code snapshot} hands out the model's last snapshot without locking while the model
+ *   has not changed, and otherwise takes the write lock just long enough to make a new one,
+ *   which is O(1); {@code cursor}, {@code getPitchRange} and {@code getRepeats} read from it,
+ *   so painting and playback never hold a lock while they walk the notes;</li>
+ *   <li>other reads take the read lock.</li>
+ * </ul>
+ *
+ * <p>Listeners are told about changes after the write lock is released, so they are free to
+ * read this model. The wrapped model must not be used directly once it is wrapped.</p>
+ */
+public final class ConcurrentMusicModel implements IMusicModel {
+
+  private final MusicModel model;
+  private final StampedLock lock = new StampedLock();
+  private final List<ModelListener> listeners = new CopyOnWriteArrayList<>();
+  private final List<ModelEvent> outbox = new ArrayList<>(); // events of the current write
+  private volatile ModelSnapshot published; // the last snapshot handed out
+
+  /**
+   * Constructs an empty thread-safe model.
+   */
+  public ConcurrentMusicModel() {
+    this(new MusicModel());
+  }
+
+  /**
+   * Constructs a thread-safe model holding the given model.
+   * @param model the model to wrap, which must not be used directly afterwards
+   */
+  public ConcurrentMusicModel(MusicModel model) {
+    this.model = Objects.requireNonNull(model);
+    model.addListener(new ModelListener() {
+      @Override
+      public void modelChanged(ModelEvent e) {
+        outbox.add(e); // only ever called by the writer, under the write lock
+      }
+    });
+  }
+
+  /**
+   * Makes the given change while holding the write lock, then tells the listeners about it.
+   * @param change  the change to make
+   */
+  private void write(Runnable change) {
+    List<ModelEvent> events;
+    long stamp = lock.writeLock();
+    try {
+      change.run();
+    }
+    finally {
+      events = outbox.isEmpty() ? Collections.<ModelEvent>emptyList() : new ArrayList<>(outbox);
+      outbox.clear();
+      lock.unlockWrite(stamp);
+    }
+    for (ModelEvent e : events) {
+      for (ModelListener l : listeners) {
+        l.modelChanged(e);
+      }
+    }
+  }
+
+  @Override
+  public void addNote(Note n) {
+    write(() -> model.addNote(n));
+  }
+
+  @Override
+  public void addAll(Collection<Note> notes) {
+    write(() -> model.addAll(notes));
+  }
+
+  /**
+   * Makes the given change as one batch, holding the write lock throughout. The change is
+   * given the wrapped model, so it must not keep it or hand it to another thread.
+   * @param change  the change to make
+   */
+  @Override
+  public void batch(Consumer<IMusicModel> change) {
+    write(() -> model.batch(change));
+  }
+
+  @Override
+  public void addListener(ModelListener l) {
+    listeners.add(l);
+  }
+
+  @Override
+  public void removeListener(ModelListener l) {
+    listeners.remove(l);
+  }
+
+  @Override
+  public void removeNote(Note n) {
+    write(() -> model.removeNote(n));
+  }
+
+  @Override
+  public void editNote(Note n, NoteField nf, String change) {
+    write(() -> model.editNote(n, nf, change));
+  }
+
+  @Override
+  public void editNote(Note n, NoteEdit edit) {
+    write(() -> model.editNote(n, edit));
+  }
+
+  @Override
+  public void setDuration(Note n, int duration) {
+    editNote(n, NoteEdit.NONE.duration(duration));
+  }
+
+  @Override
+  public void setPitch(Note n, int index) {
+    editNote(n, NoteEdit.NONE.pitch(index));
+  }
+
+  @Override
+  public void shift(Note n, int beats) {
+    editNote(n, NoteEdit.NONE.shift(beats));
+  }
+
+  @Override
+  public void combine(IMusicModel other, int insert) {
+    combineAll(Collections.singletonList(other), new int[]{insert});
+  }
+
+  /**
+   * Combines snapshots of the other pieces, taken before this model's write lock, so that
+   * this model never holds its lock while another model takes its own: two models combined
+   * into each other at once cannot deadlock.
+   */
+  @Override
+  public void combineAll(List<IMusicModel> others, int[] offsets) {
+    List<ModelSnapshot> pieces = new ArrayList<>(others.size());
+    for (IMusicModel other : others) {
+      pieces.add(other.snapshot());
+    }
+    int[] copy = offsets.clone();
+    write(() -> model.combineSnapshots(pieces, copy));
+  }
+
+  @Override
+  public void addRepeat(Repeat r) {
+    write(() -> model.addRepeat(r));
+  }
+
+  @Override
+  public void setPitchRange() {
+    write(model::setPitchRange);
+  }
+
+  @Override
+  public void setBeatXPitch() {
+    write(model::setBeatXPitch);
+  }
+
+  @Override
+  public int getBeatXPitch(int beat, OctavePitch p) {
+    long stamp = lock.readLock();
+    try {
+      return model.getBeatXPitch(beat, p);
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void setTempo(int tempo) {
+    write(() -> model.setTempo(tempo));
+  }
+
+  @Override
+  public void setRepeats(Map<Integer, Repeat> reps) {
+    write(() -> model.setRepeats(reps));
+  }
+
+  @Override
+  public void setMultiEnding(MultiEnding m) {
+    write(() -> model.setMultiEnding(m));
+  }
+
+  @Override
+  public void insertTime(int beat, int beats) {
+    write(() -> model.insertTime(beat, beats));
+  }
+
+  @Override
+  public void deleteTime(int beat, int beats) {
+    write(() -> model.deleteTime(beat, beats));
+  }
+
+  @Override
+  public void undo() {
+    write(model::undo);
+  }
+
+  @Override
+  public void redo() {
+    write(model::redo);
+  }
+
+  @Override
+  public int length() {
+    long stamp = lock.readLock();
+    try {
+      return model.length();
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public long getVersion() {
+    long stamp = lock.tryOptimisticRead();
+    long version = model.getVersion();
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        version = model.getVersion();
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return version;
+  }
+
+  @Override
+  public int getNoteCount() {
+    long stamp = lock.tryOptimisticRead();
+    int count = model.getNoteCount();
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        count = model.getNoteCount();
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public Fingerprint getFingerprint() {
+    return snapshot().getFingerprint();
+  }
+
+  @Override
+  public int getMeasureNoteCount(int measure) {
+    // the counts are counted again after time is inserted or deleted, which is a write
+    long stamp = lock.writeLock();
+    try {
+      return model.getMeasureNoteCount(measure);
+    }
+    finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public long getMeasureVersion(int measure) {
+    long stamp = lock.readLock();
+    try {
+      return model.getMeasureVersion(measure);
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void sortNotes() {
+    // the notes are always kept in order of their start beat
+  }
+
+  @Override
+  public void sortPitches() {
+    write(model::sortPitches);
+  }
+
+  @Override
+  public List<Note> getNotes() {
+    long stamp = lock.readLock();
+    try {
+      return model.getNotes();
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * A cursor over the notes as they are now, which stays valid while this model changes.
+   * @return a new cursor
+   */
+  @Override
+  public NoteCursor cursor() {
+    return snapshot().cursor();
+  }
+
+  @Override
+  public NoteCursor cursor(int start, int end) {
+    return snapshot().cursor(start, end);
+  }
+
+  @Override
+  public NoteCursor notesAtPitch(int index, int start, int end) {
+    return snapshot().notesAtPitch(index, start, end);
+  }
+
+  @Override
+  public NoteCursor notesInRect(int start, int end, int low, int high) {
+    return snapshot().notesInRect(start, end, low, high);
+  }
+
+  @Override
+  public List<Note> notesAt(int beat) {
+    long stamp = lock.readLock();
+    try {
+      return model.notesAt(beat);
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public List<Note> notesInWindow(int start, int end) {
+    long stamp = lock.readLock();
+    try {
+      return model.notesInWindow(start, end);
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public ModelSnapshot snapshot() {
+    ModelSnapshot snap = published;
+    long stamp = lock.tryOptimisticRead();
+    if (snap != null && snap.getVersion() == model.getVersion() && lock.validate(stamp)) {
+      return snap;
+    }
+    // freezing the notes changes the model's bookkeeping, so it needs the write lock
+    stamp = lock.writeLock();
+    try {
+      snap = model.snapshot();
+      published = snap;
+      return snap;
+    }
+    finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public int getTempo() {
+    long stamp = lock.tryOptimisticRead();
+    int tempo = model.getTempo();
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        tempo = model.getTempo();
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return tempo;
+  }
+
+  @Override
+  public Signature getSig() {
+    return snapshot().getSig();
+  }
+
+  @Override
+  public ArrayList<OctavePitch> getPitchRange() {
+    return new ArrayList<>(snapshot().getPitchRange());
+  }
+
+  /**
+   * The repeats as they are now, which cannot be changed through the map.
+   * @return an unmodifiable map of the repeats, by their mark
+   */
+  @Override
+  public Map<Integer, Repeat> getRepeats() {
+    return snapshot().getRepeats();
+  }
+
+  @Override
+  public MultiEnding getMultiEnding() {
+    return snapshot().getMultiEnding();
+  }
+
+  @Override
+  public String printMusic() {
+    long stamp = lock.readLock();
+    try {
+      return model.printMusic();
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public void printMusic(Appendable out, int start, int end) throws IOException {
+    long stamp = lock.readLock();
+    try {
+      model.printMusic(out, start, end);
+    }
+    finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return printMusic();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    else if (o instanceof ConcurrentMusicModel) {
+      return this.snapshot().sameMusic(((ConcurrentMusicModel) o).snapshot());
+    }
+    else {
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return snapshot().getFingerprint().hashCode();
+  }
+}
@@ -0,0 +1,244 @@
+package cs3500.music.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how each way of sharing a model between threads holds up when several readers walk
+ * the notes while one writer edits them, and prints the throughput of each:
+ *
+ * <ul>
+ *   <li>a {@code MusicModel} guarded by {@code synchronized}, each reader walking its cursor
+ *   while holding the lock;</li>
+ *   <li>a {@code ConcurrentMusicModel}, each reader walking a snapshot;</li>
+ *   <li>an {@code ActorMusicModel}, each reader walking its last published snapshot, with the
+ *   writer's edits counted once the model thread has applied them.</li>
+ * </ul>
+ *
+ * <p>Run as {@code java cs3500.music.model.ContentionBenchmark [readers] [seconds] [notes]},
+ * which default to 4 readers, 3 seconds for each model and 20000 notes.</p>
+ */
+public final class ContentionBenchmark {
+
+  private ContentionBenchmark() {
+  }
+
+  /**
+   * Runs the benchmark.
+   * @param args the number of readers, the seconds to run each model for and the number of
+   *             notes, each optional
+   * @throws InterruptedException if interrupted while waiting for the threads
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int notes = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+    System.out.println(readers + " readers, 1 writer, " + notes + " notes, " + seconds
+            + " s each, " + Runtime.getRuntime().availableProcessors() + " cores");
+    run(new Locked(), readers, seconds, notes);
+    run(new Shared("ConcurrentMusicModel", new ConcurrentMusicModel()), readers, seconds,
+            notes);
+    run(new Shared("ActorMusicModel", new ActorMusicModel()), readers, seconds, notes);
+  }
+
+  /**
+   * Fills a model, then has the readers and the writer work on it for the given time.
+   */
+  private static void run(Setup setup, int readers, int seconds, int count)
+          throws InterruptedException {
+    Random r = new Random(12);
+    List<Note> notes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      notes.add(new Note(OctavePitch.fromIndex(24 + r.nextInt(48)), i / 4 * 2,
+              1 + r.nextInt(4)));
+    }
+    setup.fill(notes);
+    setup.settle();
+    // a warm-up, so the numbers are not of the interpreter
+    work(setup, notes, readers, 1000);
+    setup.settle();
+    long[] counts = work(setup, notes, readers, seconds * 1000L);
+    System.out.printf("%-28s %12.0f walks/s %12.0f notes read/s %10.0f edits/s%n",
+            setup.name, counts[0] * 1000.0 / counts[3], counts[1] * 1000.0 / counts[3],
+            counts[2] * 1000.0 / counts[3]);
+  }
+
+  /**
+   * Runs the readers and the writer for the given time.
+   * @return the walks, the notes walked, the edits applied and the milliseconds taken
+   */
+  private static long[] work(final Setup setup, final List<Note> notes, int readers,
+                             long millis) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final long[][] counts = new long[readers + 1][2];
+    final AtomicBoolean stop = new AtomicBoolean();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < readers; i++) {
+      final long[] mine = counts[i];
+      threads.add(new Thread(() -> {
+        await(start);
+        while (!stop.get()) {
+          mine[1] += setup.walk();
+          mine[0]++;
+        }
+      }, "reader-" + i));
+    }
+    final long[] edits = counts[readers];
+    threads.add(new Thread(() -> {
+      await(start);
+      Random r = new Random(21);
+      while (!stop.get()) {
+        // a note is moved a beat later and back, so the music stays the same size
+        Note n = notes.get(r.nextInt(notes.size()));
+        setup.edit(n, NoteEdit.NONE.shift(1));
+        setup.edit(n, NoteEdit.NONE.shift(-1));
+        edits[0] += 2;
+      }
+    }, "writer"));
+    for (Thread t : threads) {
+      t.start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep(millis);
+    stop.set(true);
+    for (Thread t : threads) {
+      t.join();
+    }
+    setup.settle(); // the actor's edits only count once they are applied
+    long taken = Math.max(1, (System.nanoTime() - begin) / 1000000);
+    long walks = 0;
+    long walked = 0;
+    for (int i = 0; i < readers; i++) {
+      walks += counts[i][0];
+      walked += counts[i][1];
+    }
+    return new long[] {walks, walked, edits[0], taken};
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * A model shared in one of the ways being measured.
+   */
+  private abstract static class Setup {
+    final String name;
+
+    Setup(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Adds the notes to the model.
+     */
+    abstract void fill(List<Note> notes);
+
+    /**
+     * Walks every note of the model as a reader would.
+     * @return the number of notes walked
+     */
+    abstract int walk();
+
+    /**
+     * Edits a note of the model as the writer would.
+     */
+    abstract void edit(Note n, NoteEdit edit);
+
+    /**
+     * Waits until every edit made so far has been applied.
+     */
+    void settle() throws InterruptedException {
+      // the edits are applied by the time they return
+    }
+  }
+
+  /**
+   * A {@code MusicModel} that every thread locks while it uses it.
+   */
+  private static final class Locked extends Setup {
+    private final MusicModel model = new MusicModel();
+
+    Locked() {
+      super("MusicModel, synchronized");
+    }
+
+    @Override
+    void fill(List<Note> notes) {
+      synchronized (model) {
+        model.addAll(notes);
+      }
+    }
+
+    @Override
+    int walk() {
+      synchronized (model) {
+        return count(model.cursor());
+      }
+    }
+
+    @Override
+    void edit(Note n, NoteEdit edit) {
+      synchronized (model) {
+        model.editNote(n, edit);
+      }
+    }
+  }
+
+  /**
+   * A model that can be shared as it is, read through its snapshots.
+   */
+  private static final class Shared extends Setup {
+    private final IMusicModel model;
+
+    Shared(String name, IMusicModel model) {
+      super(name);
+      this.model = model;
+    }
+
+    @Override
+    void fill(List<Note> notes) {
+      model.addAll(notes);
+    }
+
+    @Override
+    int walk() {
+      return count(model.snapshot().cursor());
+    }
+
+    @Override
+    void edit(Note n, NoteEdit edit) {
+      model.editNote(n, edit);
+    }
+
+    @Override
+    void settle() throws InterruptedException {
+      if (model instanceof ActorMusicModel) {
+        ((ActorMusicModel) model).awaitApplied();
+      }
+    }
+  }
+
+  /**
+   * Walks a cursor to its end, reading each note's start and pitch as a view would.
+   * @return the number of notes walked
+   */
+  private static int count(NoteCursor c) {
+    int count = 0;
+    int sum = 0;
+    while (c.next()) {
+      sum += c.getStart() + c.getPitchIndex();
+      count++;
+    }
+    return sum == Integer.MIN_VALUE ? -count : count; // keeps the reads from being dropped
+  }
+}
@@ -0,0 +1,147 @@
+package cs3500.music.model;
+
+/**
+ * A 128-bit fingerprint of a piece of music: of its notes, as {@code Note.equals} sees them,
+ * together with its signature and tempo. Two pieces that are equal always have the same
+ * fingerprint, and two that are not almost never do, so a fingerprint can be used as the key
+ * of a cache of pieces, and pieces with different fingerprints need not be compared at all.
+ *
+ * <p>Each note is hashed on its own, and the hashes of all the notes are added up, once in
+ * each half with a different hash. The order of the notes therefore does not matter, and a
+ * model can keep its fingerprint up to date in O(1) as each note is added or removed.</p>
+ */
+public final class Fingerprint {
+
+  private final long high;
+  private final long low;
+
+  private Fingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * The fingerprint of a piece from the sums of its notes' hashes.
+   * @param high  the sum of {@code high} over the piece's notes
+   * @param low   the sum of {@code low} over the piece's notes
+   * @param sig   the piece's signature
+   * @param tempo the piece's tempo
+   * @return the fingerprint
+   */
+  static Fingerprint of(long high, long low, Signature sig, int tempo) {
+    long rest = mix(((long) tempo << 32) ^ ((long) sig.bpm << 16) ^ sig.beatLength);
+    return new Fingerprint(high + mix(rest), low + rest);
+  }
+
+  /**
+   * The fingerprint of the notes a cursor goes over, with the given signature and tempo.
+   * @param notes a cursor over the piece's notes
+   * @param sig   the piece's signature
+   * @param tempo the piece's tempo
+   * @return the fingerprint
+   */
+  static Fingerprint of(NoteCursor notes, Signature sig, int tempo) {
+    long high = 0;
+    long low = 0;
+    while (notes.next()) {
+      long identity = identity(notes);
+      high += high(identity);
+      low += low(identity);
+    }
+    return of(high, low, sig, tempo);
+  }
+
+  /**
+   * The hash of a note that is summed into the high half of a fingerprint.
+   * @param identity  the note's identity, as given by {@code PackedNote.identity}
+   * @return the hash
+   */
+  static long high(long identity) {
+    return mix(identity * 0xC2B2AE3D27D4EB4FL + 0x165667B19E3779F9L);
+  }
+
+  /**
+   * The hash of a note that is summed into the low half of a fingerprint.
+   * @param identity  the note's identity, as given by {@code PackedNote.identity}
+   * @return the hash
+   */
+  static long low(long identity) {
+    return mix(identity + 0x9E3779B97F4A7C15L);
+  }
+
+  /**
+   * Whether two cursors go over the same notes, as {@code Note.equals} sees them, the same
+   * number of times each. Both go over their notes in order, so this takes one pass, O(n).
+   * @param a a cursor over some notes
+   * @param b a cursor over other notes
+   * @return true if the notes are the same
+   */
+  static boolean sameNotes(NoteCursor a, NoteCursor b) {
+    while (true) {
+      boolean more = a.next();
+      if (more != b.next()) {
+        return false;
+      }
+      if (!more) {
+        return true;
+      }
+      if (identity(a) != identity(b)) {
+        return false;
+      }
+    }
+  }
+
+  private static long identity(NoteCursor c) {
+    return PackedNote.identity(PackedNote.pack(c.getStart(), c.getDuration(),
+            c.getPitchIndex(), 0, 0));
+  }
+
+  /**
+   * Scrambles the bits of a long, so that nearby inputs give unrelated outputs.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * The high 64 bits of this fingerprint.
+   * @return the high bits
+   */
+  public long getHigh() {
+    return high;
+  }
+
+  /**
+   * The low 64 bits of this fingerprint.
+   * @return the low bits
+   */
+  public long getLow() {
+    return low;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    else if (o instanceof Fingerprint) {
+      Fingerprint other = (Fingerprint) o;
+      return other.high == this.high && other.low == this.low;
+    }
+    else {
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (low ^ (low >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
@@ -1,8 +1,11 @@
 package cs3500.music.model;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.function.Consumer;
 
 
 /**
@@ -16,6 +19,32 @@ public interface IMusicModel {
    */
   void addNote(Note n);
 
+  /**
+   * Adds all the given notes to this piece of music at once. The notes are indexed
+   * together, which is much faster than adding them one at a time.
+   * @param notes the notes to add
+   */
+  void addAll(Collection<Note> notes);
+
+  /**
+   * Makes the given change to this piece of music as one batch. Notes added during the
+   * batch are indexed together when it ends, instead of one at a time.
+   * @param change  the change to make, given this IMusicModel to change
+   */
+  void batch(Consumer<IMusicModel> change);
+
+  /**
+   * Starts telling the given listener about every change to this piece of music.
+   * @param l the listener
+   */
+  void addListener(ModelListener l);
+
+  /**
+   * Stops telling the given listener about changes to this piece of music.
+   * @param l the listener
+   */
+  void removeListener(ModelListener l);
+
   /**
    * If found, removes the given note from this music piece.
    * @param n the note to remove
@@ -30,6 +59,39 @@ public interface IMusicModel {
    */
   void editNote(Note n, NoteField nf, String change);
 
+  /**
+   * Makes all the changes in the given edit to a note in this music piece at once, moving
+   * the note in the index only once. The given note is changed to match.
+   * @param n     the note to change
+   * @param edit  the changes to make
+   * @throws IllegalArgumentException if the edited note would not be a valid note
+   */
+  void editNote(Note n, NoteEdit edit);
+
+  /**
+   * Changes the duration of a note in this music piece.
+   * @param n         the note to change
+   * @param duration  the new duration, in beats
+   * @throws IllegalArgumentException if the duration is not positive
+   */
+  void setDuration(Note n, int duration);
+
+  /**
+   * Changes the pitch of a note in this music piece.
+   * @param n     the note to change
+   * @param index the new pitch, as its {@code OctavePitch.getIndex}, 12 below its MIDI number
+   * @throws IllegalArgumentException if there is no such pitch
+   */
+  void setPitch(Note n, int index);
+
+  /**
+   * Moves a note in this music piece later by the given number of beats.
+   * @param n     the note to move
+   * @param beats how far to move it, which is earlier if negative
+   * @throws IllegalArgumentException if the note would start before beat 0
+   */
+  void shift(Note n, int beats);
+
   /**
    * Incorporates the given music piece into this music piece.
    * @param other   The music to add to this music
@@ -37,6 +99,14 @@ public interface IMusicModel {
    */
   void combine(IMusicModel other, int insert);
 
+  /**
+   * Incorporates all the given music pieces into this music piece at once.
+   * @param others  the music to add to this music
+   * @param offsets the beat to insert each piece at, relative to its starting point
+   * @throws IllegalArgumentException if there is not one offset for each piece
+   */
+  void combineAll(List<IMusicModel> others, int[] offsets);
+
   /**
    * Adds the given repeat to the repeats in this IMusicModel.
    * @param r the repeat to be added.
@@ -49,10 +119,20 @@ public interface IMusicModel {
   void setPitchRange();
 
   /**
-   * Sets up for the @code{ printMusic } String.
+   * Rebuilds, from all the notes, the grid of beats x pitch that @code{ printMusic } reads.
+   * The grid is kept up to date as notes change, so this should not normally be needed.
    */
   void setBeatXPitch();
 
+  /**
+   * Reads one cell of the grid of beats x pitch, in O(1).
+   * @param beat  the beat
+   * @param p     the pitch
+   * @return 1 if a note of that pitch starts at that beat, 0 if one is sounding there,
+   *         and -1 if neither
+   */
+  int getBeatXPitch(int beat, OctavePitch p);
+
   /**
    * Sets the tempo to be the given int, in microseconds per beat
    * @param tempo the desired tempo
@@ -71,12 +151,84 @@ public interface IMusicModel {
    */
   void setMultiEnding(MultiEnding m);
 
+  /**
+   * Opens a gap in this music piece: every note starting at or after the given beat, and
+   * every repeat and ending from there on, is moved later by the given number of beats.
+   * Notes that start before the beat are left where they are.
+   * @param beat  the beat to open the gap at
+   * @param beats how long the gap is
+   * @throws IllegalArgumentException if either is negative, or a note would start too late
+   */
+  void insertTime(int beat, int beats);
+
+  /**
+   * Closes up a stretch of this music piece: the notes starting in the beats
+   * [beat, beat + beats) are removed, and every note, repeat and ending after them is moved
+   * earlier by the given number of beats. Notes that start before the beat are left where
+   * they are.
+   * @param beat  the first beat to delete
+   * @param beats how many beats to delete
+   * @throws IllegalArgumentException if either is negative
+   */
+  void deleteTime(int beat, int beats);
+
+  /**
+   * Undoes the last change to this music piece that has not been undone. A batch is undone
+   * as a whole, as is a note stretched a beat at a time. Does nothing if there is nothing
+   * left to undo.
+   */
+  void undo();
+
+  /**
+   * Redoes the last change undone, if nothing has been changed since. Does nothing if there
+   * is nothing to redo.
+   */
+  void redo();
+
+  /**
+   * A 128-bit fingerprint of this piece's notes, signature and tempo, which does not depend
+   * on the order the notes were added in. Equal pieces have equal fingerprints, so it can be
+   * used as a cache key.
+   * @return the fingerprint
+   */
+  Fingerprint getFingerprint();
+
   /**
    * The length of this piece of music, in beats.
    * @return      the last beat
    */
   int length();
 
+  /**
+   * A number that goes up every time this piece of music changes, so anything derived from
+   * it can be kept until the version moves on.
+   * @return the current version
+   */
+  long getVersion();
+
+  /**
+   * The number of notes in this piece of music.
+   * @return the note count
+   */
+  int getNoteCount();
+
+  /**
+   * The number of notes starting in the given measure, where a measure is as many beats as
+   * this music's signature says. The counts are kept up to date as notes change.
+   * @param measure the measure, starting from 0
+   * @return the number of notes starting in that measure
+   */
+  int getMeasureNoteCount(int measure);
+
+  /**
+   * The version of this piece at which a note sounding in the given measure was last added,
+   * removed or changed. A view that remembers the versions it drew each measure at only has
+   * to redraw the measures whose version has gone up.
+   * @param measure the measure, starting from 0
+   * @return the version, or 0 if no note there has ever changed
+   */
+  long getMeasureVersion(int measure);
+
   /**
    * Sorts this @code{ IMusicModel }'s notes by their start time.
    */
@@ -93,6 +245,67 @@ public interface IMusicModel {
    */
   List<Note> getNotes();
 
+  /**
+   * A cursor over all the notes in this piece of music, in order of their start beat, that
+   * does not create a {@code Note} for each one.
+   * @return a new cursor
+   */
+  NoteCursor cursor();
+
+  /**
+   * A cursor over the notes sounding at any point in the beats [start, end), in order of
+   * their start beat. Only the notes in the window are looked at.
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @return a new cursor
+   */
+  NoteCursor cursor(int start, int end);
+
+  /**
+   * A cursor over the notes of the given pitch sounding at any point in the beats
+   * [start, end), in order of their start beat.
+   * @param index the pitch, as its {@code OctavePitch.getIndex}, 12 below its MIDI number
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @return a new cursor
+   */
+  NoteCursor notesAtPitch(int index, int start, int end);
+
+  /**
+   * A cursor over the notes in a rectangle of the beats x pitch grid: those sounding at any
+   * point in the beats [start, end) whose pitch is from low to high, in order of their start
+   * beat. Parts of the music with no notes of those pitches are skipped.
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @param low   the lowest pitch, as its {@code OctavePitch.getIndex}
+   * @param high  the highest pitch, as its {@code OctavePitch.getIndex}
+   * @return a new cursor
+   */
+  NoteCursor notesInRect(int start, int end, int low, int high);
+
+  /**
+   * The notes sounding at the given beat, in order of their start beat.
+   * @param beat  the beat to look at
+   * @return a list of the notes that start at or before the beat and end after it
+   */
+  List<Note> notesAt(int beat);
+
+  /**
+   * The notes sounding at any point in the beats [start, end), in order of their start beat.
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @return a list of the notes that start before end and end after start
+   */
+  List<Note> notesInWindow(int start, int end);
+
+  /**
+   * An unchanging view of this piece of music as it is now, which shares its notes with this
+   * model instead of copying them, so it takes O(1). Readers such as paint code or playback
+   * can go through a snapshot without copying or locking while this model keeps changing.
+   * @return a snapshot of this music
+   */
+  ModelSnapshot snapshot();
+
   /**
    * The tempo, in microseconds per beat, of this music composition
    * @return    the tempo;
@@ -132,6 +345,17 @@ public interface IMusicModel {
    */
   public String printMusic();
 
+  /**
+   * Writes the same "grid" as @code{ printMusic } to the given output a line at a time,
+   * including only the rows for the beats [start, end). The header line of pitches is
+   * always written, and lines are separated, not ended, by a newline.
+   * @param out     where to write the grid
+   * @param start   the first beat to write a row for
+   * @param end     the beat after the last beat to write a row for
+   * @throws IOException if the output fails
+   */
+  void printMusic(Appendable out, int start, int end) throws IOException;
+
   @Override
   public String toString();
 
@@ -0,0 +1,123 @@
+package cs3500.music.model;
+
+import java.util.Arrays;
+
+/**
+ * A hash table from a note's identity, as given by {@code PackedNote.identity}, to the slot
+ * of a {@code NoteTree} holding a note with that identity. It uses open addressing with
+ * linear probing over two primitive arrays, so looking a note up takes O(1) expected and
+ * creates no objects.
+ */
+final class IdentityIndex {
+
+  private long[] keys = new long[16]; // identity + 1, so that 0 marks an empty place
+  private int[] slots = new int[16];
+  private int size;
+
+  /**
+   * The slot stored for the given identity.
+   * @param identity  the identity
+   * @return the slot, or {@code NoteTree.NIL} if there is none
+   */
+  int get(long identity) {
+    long key = identity + 1;
+    int mask = keys.length - 1;
+    for (int i = hash(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return slots[i];
+      }
+    }
+    return NoteTree.NIL;
+  }
+
+  /**
+   * Stores the given slot for the given identity, replacing any slot stored for it before.
+   * @param identity  the identity
+   * @param slot      the slot
+   */
+  void put(long identity, int slot) {
+    if ((size + 1) * 4 > keys.length * 3) {
+      resize(keys.length * 2);
+    }
+    long key = identity + 1;
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (keys[i] != 0 && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    if (keys[i] == 0) {
+      keys[i] = key;
+      size++;
+    }
+    slots[i] = slot;
+  }
+
+  /**
+   * Removes whatever slot is stored for the given identity.
+   * @param identity  the identity
+   */
+  void remove(long identity) {
+    long key = identity + 1;
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (keys[i] != key) {
+      if (keys[i] == 0) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    // shift later entries back, so that none is cut off from where its probe starts
+    for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+      int home = hash(keys[j]) & mask;
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        keys[i] = keys[j];
+        slots[i] = slots[j];
+        i = j;
+      }
+    }
+    keys[i] = 0;
+    size--;
+  }
+
+  /**
+   * Empties this index, making room for at least the given number of identities.
+   * @param capacity  how many identities are about to be stored
+   */
+  void clear(int capacity) {
+    int length = 16;
+    while (length * 3 < capacity * 4) {
+      length *= 2;
+    }
+    if (length == keys.length) {
+      Arrays.fill(keys, 0);
+    }
+    else {
+      keys = new long[length];
+      slots = new int[length];
+    }
+    size = 0;
+  }
+
+  private void resize(int length) {
+    long[] oldKeys = keys;
+    int[] oldSlots = slots;
+    keys = new long[length];
+    slots = new int[length];
+    int mask = length - 1;
+    for (int k = 0; k < oldKeys.length; k++) {
+      if (oldKeys[k] != 0) {
+        int i = hash(oldKeys[k]) & mask;
+        while (keys[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[k];
+        slots[i] = oldSlots[k];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
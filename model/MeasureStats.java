@@ -0,0 +1,171 @@
+package cs3500.music.model;
+
+import java.util.Arrays;
+
+/**
+ * Keeps, for each measure of a {@code MusicModel}, how many notes start in it and the
+ * version of the model at which its notes last changed. Both are updated as each note is
+ * added or removed, touching only the measures that note sounds in, so the cost of a change
+ * does not depend on how far into the piece it is.
+ *
+ * <p>When time is inserted or deleted, every measure from there on moves at once. Rather
+ * than moving the arrays, the counts from that measure on are marked unknown and counted
+ * again only when next asked for, and every measure from there on is taken to have changed
+ * at that version.</p>
+ *
+ * <p>Like {@code NoteTree}, a copy made by {@code freeze} shares this one's arrays, and this
+ * one copies them before it next changes.</p>
+ */
+final class MeasureStats {
+
+  private final int bpm;
+  private final boolean frozen;
+  private int[] counts; // how many notes start in each measure
+  private long[] changed; // the version each measure last changed at
+  private boolean shared; // whether a frozen copy holds these very arrays
+  private int known = Integer.MAX_VALUE; // the first measure whose count is unknown
+  private int movedFrom = Integer.MAX_VALUE; // the first measure moved by a change of time
+  private long movedAt; // the version of the last change of time
+
+  /**
+   * Constructs the statistics of a piece with no notes.
+   * @param bpm the number of beats in a measure
+   */
+  MeasureStats(int bpm) {
+    this.bpm = Math.max(1, bpm);
+    this.frozen = false;
+    this.counts = new int[16];
+    this.changed = new long[16];
+  }
+
+  private MeasureStats(MeasureStats from) {
+    this.bpm = from.bpm;
+    this.frozen = true;
+    this.counts = from.counts;
+    this.changed = from.changed;
+    this.known = from.known;
+    this.movedFrom = from.movedFrom;
+    this.movedAt = from.movedAt;
+  }
+
+  /**
+   * A copy of these statistics, as they are now, that can never change.
+   * @return the frozen copy
+   */
+  MeasureStats freeze() {
+    if (frozen) {
+      return this;
+    }
+    shared = true;
+    return new MeasureStats(this);
+  }
+
+  /**
+   * The number of beats in a measure.
+   * @return the beats per measure
+   */
+  int beatsPerMeasure() {
+    return bpm;
+  }
+
+  /**
+   * Counts a note as added to or removed from the piece, and marks every measure it sounds
+   * in as changed.
+   * @param start   the note's start beat
+   * @param end     the beat the note stops sounding at
+   * @param change  1 if the note was added, -1 if it was removed
+   * @param version the version of the model after the change
+   */
+  void count(int start, int end, int change, long version) {
+    int first = start / bpm;
+    int last = Math.max(first, (end - 1) / bpm);
+    own(last);
+    if (first < known) {
+      counts[first] += change;
+    }
+    Arrays.fill(changed, first, last + 1, version);
+  }
+
+  /**
+   * Marks every measure from the one holding the given beat as moved by a change of time,
+   * so that their counts are unknown and they have all changed.
+   * @param beat    the first beat whose notes moved
+   * @param version the version of the model after the change
+   */
+  void moved(int beat, long version) {
+    own(0);
+    known = Math.min(known, beat / bpm);
+    movedFrom = Math.min(movedFrom, beat / bpm);
+    movedAt = version;
+  }
+
+  /**
+   * The number of notes starting in the given measure.
+   * @param measure the measure, starting from 0
+   * @return the note count, which is 0 for a measure past the end, or -1 if the count is
+   *         unknown since a change of time and must be found with {@code recount}
+   */
+  int noteCount(int measure) {
+    if (measure >= known) {
+      return -1;
+    }
+    return measure >= 0 && measure < counts.length ? counts[measure] : 0;
+  }
+
+  /**
+   * Counts again every measure whose count is unknown.
+   * @param notes a cursor over at least every note starting in those measures
+   */
+  void recount(NoteCursor notes) {
+    if (known == Integer.MAX_VALUE) {
+      return;
+    }
+    own(0);
+    int from = known;
+    if (from < counts.length) {
+      Arrays.fill(counts, from, counts.length, 0);
+    }
+    while (notes.next()) {
+      int m = notes.getStart() / bpm;
+      if (m >= from) {
+        own(m);
+        counts[m]++;
+      }
+    }
+    known = Integer.MAX_VALUE;
+  }
+
+  /**
+   * The first measure whose count is unknown.
+   * @return the measure, or {@code Integer.MAX_VALUE} if every count is known
+   */
+  int firstUnknown() {
+    return known;
+  }
+
+  /**
+   * The version of the model at which a note sounding in the given measure was last added,
+   * removed or moved.
+   * @param measure the measure, starting from 0
+   * @return the version, or 0 if no note there has ever changed
+   */
+  long changedAt(int measure) {
+    long at = measure >= 0 && measure < changed.length ? changed[measure] : 0;
+    return measure >= movedFrom ? Math.max(at, movedAt) : at;
+  }
+
+  /**
+   * Makes sure the arrays belong to these statistics alone and reach the given measure.
+   */
+  private void own(int measure) {
+    if (frozen) {
+      throw new IllegalStateException("Frozen statistics cannot be changed");
+    }
+    if (shared || measure >= counts.length) {
+      int size = Math.max(counts.length, Integer.highestOneBit(measure) << 1);
+      counts = Arrays.copyOf(counts, size);
+      changed = Arrays.copyOf(changed, size);
+      shared = false;
+    }
+  }
+}
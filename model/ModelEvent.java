@@ -0,0 +1,158 @@
+package cs3500.music.model;
+
+/**
+ * A change to an {@code IMusicModel}, with the region of beats and pitches it affected.
+ * Changes to notes carry the note as it was and as it is now, where that makes sense; every
+ * other change covers the whole piece.
+ */
+public final class ModelEvent {
+
+  /**
+   * The kinds of change a model can tell its listeners about.
+   */
+  public enum Type {
+    NOTE_ADDED, // a note was added; it is the new note
+    NOTE_REMOVED, // a note was removed; it is the old note
+    NOTE_EDITED, // a note was changed from the old note to the new one
+    NOTES_CHANGED, // too many notes changed to tell about one by one
+    TEMPO_CHANGED,
+    REPEATS_CHANGED,
+    ENDING_CHANGED
+  }
+
+  private static final long NONE = -1; // no packed note is negative
+
+  private final Type type;
+  private final long oldKey; // the packed old note, or NONE
+  private final long newKey; // the packed new note, or NONE
+  private final int start;
+  private final int end;
+  private final int lowPitch;
+  private final int highPitch;
+
+  private ModelEvent(Type type, long oldKey, long newKey, int start, int end, int lowPitch,
+                     int highPitch) {
+    this.type = type;
+    this.oldKey = oldKey;
+    this.newKey = newKey;
+    this.start = start;
+    this.end = end;
+    this.lowPitch = lowPitch;
+    this.highPitch = highPitch;
+  }
+
+  /**
+   * An event for a change to a note.
+   * @param type    NOTE_ADDED, NOTE_REMOVED or NOTE_EDITED
+   * @param oldKey  the packed note as it was, or -1 if it was just added
+   * @param newKey  the packed note as it is now, or -1 if it was removed
+   * @return the event
+   */
+  static ModelEvent note(Type type, long oldKey, long newKey) {
+    long first = oldKey == NONE ? newKey : oldKey;
+    long second = newKey == NONE ? oldKey : newKey;
+    return new ModelEvent(type, oldKey, newKey,
+            Math.min(PackedNote.start(first), PackedNote.start(second)),
+            Math.max(PackedNote.end(first), PackedNote.end(second)),
+            Math.min(PackedNote.pitch(first), PackedNote.pitch(second)),
+            Math.max(PackedNote.pitch(first), PackedNote.pitch(second)));
+  }
+
+  /**
+   * An event for many changes to notes within the given region.
+   * @param start     the first beat changed
+   * @param end       the beat after the last beat changed
+   * @param lowPitch  the index of the lowest pitch changed
+   * @param highPitch the index of the highest pitch changed
+   * @return the event
+   */
+  static ModelEvent notes(int start, int end, int lowPitch, int highPitch) {
+    return new ModelEvent(Type.NOTES_CHANGED, NONE, NONE, start, end, lowPitch, highPitch);
+  }
+
+  /**
+   * An event for a change that covers the whole piece.
+   * @param type  TEMPO_CHANGED, REPEATS_CHANGED or ENDING_CHANGED
+   * @return the event
+   */
+  static ModelEvent whole(Type type) {
+    return new ModelEvent(type, NONE, NONE, 0, Integer.MAX_VALUE, 0, OctavePitch.COUNT - 1);
+  }
+
+  long getOldKey() {
+    return oldKey;
+  }
+
+  long getNewKey() {
+    return newKey;
+  }
+
+  /**
+   * What kind of change this was.
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Whether this change was to the notes, rather than to the tempo, repeats or ending.
+   * @return true if notes were added, removed or edited
+   */
+  public boolean isNoteChange() {
+    return type.ordinal() <= Type.NOTES_CHANGED.ordinal();
+  }
+
+  /**
+   * The note as it was before the change.
+   * @return a new note, or null if there was no such note
+   */
+  public Note getOldNote() {
+    return oldKey == NONE ? null : PackedNote.toNote(oldKey);
+  }
+
+  /**
+   * The note as it is after the change.
+   * @return a new note, or null if there is no such note
+   */
+  public Note getNewNote() {
+    return newKey == NONE ? null : PackedNote.toNote(newKey);
+  }
+
+  /**
+   * The first beat affected by this change.
+   * @return the start of the region
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * The beat after the last beat affected by this change.
+   * @return the end of the region
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * The index, as given by {@code OctavePitch.getIndex}, of the lowest pitch affected.
+   * @return the lowest pitch index
+   */
+  public int getLowPitch() {
+    return lowPitch;
+  }
+
+  /**
+   * The index, as given by {@code OctavePitch.getIndex}, of the highest pitch affected.
+   * @return the highest pitch index
+   */
+  public int getHighPitch() {
+    return highPitch;
+  }
+
+  @Override
+  public String toString() {
+    return type + " [" + start + ", " + end + ") pitches " + lowPitch + "-" + highPitch;
+  }
+}
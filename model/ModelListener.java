@@ -0,0 +1,15 @@
+package cs3500.music.model;
+
+/**
+ * Something that wants to hear about every change to an {@code IMusicModel}, so it can update
+ * only what the change affected instead of rereading the whole model.
+ */
+public interface ModelListener {
+
+  /**
+   * Called after the model has changed. Changes made in one batch are told about once the
+   * batch ends, with changes to the same note merged together.
+   * @param e what changed
+   */
+  void modelChanged(ModelEvent e);
+}
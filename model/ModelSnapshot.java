@@ -0,0 +1,312 @@
+package cs3500.music.model;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An unchanging view of an {@code IMusicModel} as it was at one moment. A snapshot shares its
+ * notes with the model it came from, so taking one costs O(1) and nothing is copied; the
+ * model copies a page of its notes only when it next changes that page. Snapshots can be read
+ * from any thread, without locking, while the model keeps changing.
+ */
+public final class ModelSnapshot {
+
+  private final NoteTree notes;
+  private final MeasureStats measures;
+  private final long version;
+  private final Signature sig;
+  private final int tempo;
+  private final int lowest;
+  private final int highest;
+  private final Map<Integer, Repeat> repeats;
+  private final MultiEnding end;
+  private Fingerprint fingerprint; // found from the notes when first asked for, if not given
+
+  /**
+   * Constructs a snapshot. The tree must be frozen, and the repeats must never change.
+   * @param notes   the frozen notes
+   * @param measures  the frozen measure statistics
+   * @param version the version of the model
+   * @param sig     the model's signature
+   * @param tempo   the model's tempo
+   * @param lowest  the index of the lowest pitch in use, or -1 if there are no notes
+   * @param highest the index of the highest pitch in use
+   * @param repeats the model's repeats
+   * @param end     the model's multi-ending, or null
+   * @param fingerprint the model's fingerprint, or null if it must be found from the notes
+   */
+  ModelSnapshot(NoteTree notes, MeasureStats measures, long version, Signature sig, int tempo, int lowest,
+                int highest, Map<Integer, Repeat> repeats, MultiEnding end,
+                Fingerprint fingerprint) {
+    this.notes = notes;
+    this.measures = measures;
+    this.version = version;
+    this.sig = new Signature(sig.bpm, sig.beatLength);
+    this.tempo = tempo;
+    this.lowest = lowest;
+    this.highest = highest;
+    this.repeats = Collections.unmodifiableMap(repeats);
+    this.end = end;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * The fingerprint of the piece as it was when this snapshot was taken.
+   * @return the fingerprint
+   */
+  public Fingerprint getFingerprint() {
+    Fingerprint f = fingerprint;
+    if (f == null) {
+      // every thread that gets here finds the same fingerprint, so they may race
+      f = Fingerprint.of(cursor(), sig, tempo);
+      fingerprint = f;
+    }
+    return f;
+  }
+
+  /**
+   * Whether this snapshot holds the same music as another, as {@code MusicModel.equals}
+   * decides it: the same notes, signature and tempo.
+   * @param other another snapshot
+   * @return true if the music is the same
+   */
+  boolean sameMusic(ModelSnapshot other) {
+    return getFingerprint().equals(other.getFingerprint())
+            && sig.equals(other.sig)
+            && tempo == other.tempo
+            && Fingerprint.sameNotes(cursor(), other.cursor());
+  }
+
+  /**
+   * The version of the model this snapshot was taken at.
+   * @return the version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * The number of notes in this snapshot.
+   * @return the note count
+   */
+  public int getNoteCount() {
+    return notes.size();
+  }
+
+  /**
+   * The length of the music, in beats.
+   * @return the last beat
+   */
+  public int length() {
+    return Math.max(0, notes.maxEnd() - 1);
+  }
+
+  /**
+   * The tempo, in microseconds per beat.
+   * @return the tempo
+   */
+  public int getTempo() {
+    return tempo;
+  }
+
+  /**
+   * The music's signature.
+   * @return a copy of the signature
+   */
+  public Signature getSig() {
+    return new Signature(sig.bpm, sig.beatLength);
+  }
+
+  /**
+   * The pitches from the lowest to the highest pitch in use. The list is a view, so getting
+   * it copies nothing.
+   * @return an unmodifiable list of the pitches, lowest first
+   */
+  public List<OctavePitch> getPitchRange() {
+    return new AbstractList<OctavePitch>() {
+      @Override
+      public OctavePitch get(int i) {
+        if (i < 0 || i >= size()) {
+          throw new IndexOutOfBoundsException("Index: " + i);
+        }
+        return OctavePitch.fromIndex(lowest + i);
+      }
+
+      @Override
+      public int size() {
+        return lowest == -1 ? 0 : highest - lowest + 1;
+      }
+    };
+  }
+
+  /**
+   * The repeats of the music, by their mark.
+   * @return an unmodifiable map of the repeats
+   */
+  public Map<Integer, Repeat> getRepeats() {
+    return repeats;
+  }
+
+  /**
+   * The music's multi-ending.
+   * @return the multi-ending, or null if there is not one
+   */
+  public MultiEnding getMultiEnding() {
+    return end;
+  }
+
+  /**
+   * A cursor over all the notes, in order of their start beat.
+   * @return a new cursor
+   */
+  public NoteCursor cursor() {
+    return notes.cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * A cursor over the notes sounding at any point in the beats [start, end), in order of
+   * their start beat.
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @return a new cursor
+   */
+  public NoteCursor cursor(int start, int end) {
+    return notes.cursor(start, end);
+  }
+
+  /**
+   * A cursor over the notes of the given pitch sounding at any point in the beats
+   * [start, end), in order of their start beat.
+   * @param index the pitch, as its {@code OctavePitch.getIndex}, 12 below its MIDI number
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @return a new cursor
+   */
+  public NoteCursor notesAtPitch(int index, int start, int end) {
+    return notes.cursor(start, end, index, index);
+  }
+
+  /**
+   * A cursor over the notes sounding at any point in the beats [start, end) whose pitch is
+   * from low to high, in order of their start beat.
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @param low   the lowest pitch, as its {@code OctavePitch.getIndex}
+   * @param high  the highest pitch, as its {@code OctavePitch.getIndex}
+   * @return a new cursor
+   */
+  public NoteCursor notesInRect(int start, int end, int low, int high) {
+    return notes.cursor(start, end, low, high);
+  }
+
+  /**
+   * All the notes, in order of their start beat.
+   * @return a new list of the notes
+   */
+  public List<Note> getNotes() {
+    return notes.toList();
+  }
+
+  /**
+   * The notes sounding at the given beat, in order of their start beat.
+   * @param beat  the beat to look at
+   * @return a new list of the notes
+   */
+  public List<Note> notesAt(int beat) {
+    return notesInWindow(beat, beat + 1);
+  }
+
+  /**
+   * The notes sounding at any point in the beats [start, end), in order of their start beat.
+   * @param start the first beat of the window
+   * @param end   the beat after the last beat of the window
+   * @return a new list of the notes
+   */
+  public List<Note> notesInWindow(int start, int end) {
+    List<Note> result = new ArrayList<>();
+    notes.overlapping(start, end, result);
+    return result;
+  }
+
+  /**
+   * What the grid of beats x pitch holds at the given beat and pitch.
+   * @param beat  the beat
+   * @param p     the pitch
+   * @return 1 if a note of that pitch starts at that beat, 0 if one is sounding there,
+   *         and -1 if neither
+   */
+  public int getBeatXPitch(int beat, OctavePitch p) {
+    int result = -1;
+    NoteCursor c = notesAtPitch(p.getIndex(), beat, beat + 1);
+    while (c.next()) {
+      if (c.getStart() == beat) {
+        return 1;
+      }
+      result = 0;
+    }
+    return result;
+  }
+
+  /**
+   * The number of notes starting in the given measure.
+   * @param measure the measure, starting from 0
+   * @return the number of notes starting in that measure
+   */
+  public int getMeasureNoteCount(int measure) {
+    int count = measures.noteCount(measure);
+    if (count < 0) {
+      // the count is not known since time was inserted or deleted, so the notes are counted
+      int bpm = measures.beatsPerMeasure();
+      int from = measure * bpm;
+      count = 0;
+      NoteCursor c = notes.cursor(from, from + bpm);
+      while (c.next()) {
+        if (c.getStart() >= from) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The version of the model at which a note sounding in the given measure was last added
+   * or removed, as of this snapshot.
+   * @param measure the measure, starting from 0
+   * @return the version, or 0 if no note there has ever changed
+   */
+  public long getMeasureVersion(int measure) {
+    return measures.changedAt(measure);
+  }
+
+  /**
+   * Writes the same grid as {@code IMusicModel.printMusic}, with only the rows for the beats
+   * [start, end).
+   * @param out     where to write the grid
+   * @param start   the first beat to write a row for
+   * @param end     the beat after the last beat to write a row for
+   * @throws IOException if the output fails
+   */
+  public void printMusic(Appendable out, int start, int end) throws IOException {
+    BeatGrid.printWindow(out, notes, lowest, highest, start, end);
+  }
+
+  /**
+   * The same grid as {@code IMusicModel.printMusic}.
+   * @return the grid as a String
+   */
+  public String printMusic() {
+    StringBuilder result = new StringBuilder();
+    try {
+      printMusic(result, 0, length() + 1);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("a StringBuilder cannot fail to append", e);
+    }
+    return result.toString();
+  }
+}
@@ -22,6 +22,16 @@ public class MultiEnding {
     }
   }
 
+  /**
+   * Constructs a multi-ending from its parts as they were already worked out.
+   * @param buildUp the repeat leading up to the endings, which may be null
+   * @param endings the endings, in order
+   */
+  MultiEnding(Repeat buildUp, List<Repeat> endings) {
+    this.buildUp = buildUp;
+    this.endings.addAll(endings);
+  }
+
   public Repeat getBuildUp() {
     return this.buildUp;
   }
@@ -1,6 +1,8 @@
 package cs3500.music.model;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
 
 import cs3500.music.util.*;
 
@@ -11,14 +13,37 @@ import cs3500.music.util.*;
  */
 public final class MusicModel implements IMusicModel {
 
-  private List<Note> notes;
+  private static final int UNDO_BYTES = 1 << 20; // the memory the undo history may use
+  private static final long NO_REPEAT = -1; // a missing repeat, as packed by pack(Repeat)
+
+  private NoteTree notes;
   private Signature sig;
   private int tempo;
   private List<OctavePitch> pitchRange;
-  private ArrayList<ArrayList<Integer>> beatXPitch;
+  private int[] pitchCounts = new int[OctavePitch.COUNT]; // how many notes have each pitch
+  private int lowest = -1; // index of the lowest pitch in use, or -1 if there are no notes
+  private int highest = -1; // index of the highest pitch in use
+  private boolean rangeChanged; // whether pitchRange needs to be rebuilt
+  private BeatGrid beatXPitch = new BeatGrid();
+  private boolean gridStale; // whether beatXPitch is out of date since a change of time
   private Map<String, Pitch> pitchNames = new HashMap<>();
   private Map<Integer, Repeat> repeats;
+  private boolean repeatsShared; // whether a snapshot holds the repeats map
+  private ModelSnapshot snapshot; // the last snapshot taken, if any
   private MultiEnding end;
+  private long version; // goes up by at least one every time this model changes
+  private MeasureStats measures; // the note count and last change of each measure
+  private long noteHashHigh; // the sums of the notes' hashes, for the fingerprint
+  private long noteHashLow;
+  private boolean hashStale; // whether the sums are out of date since a change of time
+  private int batchDepth; // how many batches are open
+  private long[] pending = new long[16]; // packed notes added but not yet in the tree
+  private int pendingCount;
+  private boolean pendingSorted = true; // whether the pending notes were added in order
+  private final ChangeNotifier events = new ChangeNotifier();
+  private UndoJournal journal = new UndoJournal(UNDO_BYTES);
+  private boolean inAction; // whether the open batch has started an undoable action
+  private boolean replaying; // whether an undo or redo is being played, and not recorded
 
 
   /**
@@ -26,12 +51,11 @@ public final class MusicModel implements IMusicModel {
    * list of notes.
    */
   public MusicModel() {
-    this.notes = new ArrayList<>();
+    this.notes = new NoteTree();
     this.sig = new Signature(4, 4);
+    this.measures = new MeasureStats(sig.bpm);
     this.pitchRange = new ArrayList<>();
-    this.beatXPitch = new ArrayList<>();
     this.repeats = new HashMap<>();
-    this.initBeatXPitch();
     for (Pitch p : Pitch.pitchOrder) {
       pitchNames.put(p.name, p);
     }
@@ -45,22 +69,20 @@ public final class MusicModel implements IMusicModel {
    * @param sig       This music piece's signature, or 4, 4 as a default if set to null
    */
   public MusicModel(List<Note> notes, Signature sig) {
-    if (notes == null) {
-      this.notes = new ArrayList<>();
-    }
-    else {
-      this.notes = notes;
-    }
+    this.notes = new NoteTree();
+    this.repeats = new HashMap<>();
     if (sig == null) {
       this.sig = new Signature(4, 4);
     }
     else {
       this.sig = sig;
     }
+    this.measures = new MeasureStats(this.sig.bpm);
+    if (notes != null) {
+      addAll(notes);
+    }
+    journal.clear(); // the notes the piece starts with cannot be undone
     this.pitchRange = new ArrayList<>();
-    this.beatXPitch = new ArrayList<>();
-    this.setPitchRange();
-    this.initBeatXPitch();
     for (Pitch p : Pitch.pitchOrder) {
       pitchNames.put(p.name, p);
     }
@@ -68,77 +90,351 @@ public final class MusicModel implements IMusicModel {
 
   @Override
   public void addNote(Note n) {
-    notes.add(n);
-    sortNotes();
-    setPitchRange();
+    long key = PackedNote.pack(n);
+    insert(key);
+    events.noteAdded(key);
+    record(UndoJournal.ADD, key);
   }
 
   @Override
   public void removeNote(Note n) {
-    if (notes.contains(n)) {
-      notes.remove(n);
+    int slot = tree().find(PackedNote.identity(PackedNote.pack(n)));
+    if (slot == NoteTree.NIL) {
+      System.out.print("couldn't find note");
     }
     else {
-      System.out.print("couldn't find note");
+      long key = notes.key(slot);
+      remove(slot);
+      events.noteRemoved(key);
+      record(UndoJournal.REMOVE, key);
     }
-    setPitchRange();
   }
 
   @Override
   public void editNote(Note n, NoteField nf, String change) {
-    if (notes.contains(n)) {
-      switch (nf) {
-        case PITCH:
-          try {
-            n.setPitch(parsePitch(change));
-            setPitchRange();
-          }
-          catch (NullPointerException npe) {
-            System.out.print("Could not edit note, please try again");
-            return;
-          }
-          break;
-        case START:
-          try {
-            n.setStart(Integer.parseInt(change));
-          }
-          catch (NumberFormatException u) {
-            System.out.print("Invalid note start");
-          }
-          break;
-        case DURATION:
-          try {
-            n.setDuration(Integer.parseInt(change));
-          }
-          catch (NumberFormatException u) {
-            System.out.print("Invalid note duration");
-          }
-          break;
-        case VOLUME:
-          try {
-            n.setVolume(Integer.parseInt(change));
-          }
-          catch (NumberFormatException u) {
-            System.out.print("Invalid note volume");
-          }
-          break;
-        case INSTRUMENT:
-          try {
-            n.setInstrument(Integer.parseInt(change));
-          }
-          catch (NumberFormatException u) {
-            System.out.print("Invalid note instrument");
-          }
-          break;
-        default:
-          throw new IllegalArgumentException("Not a valid part of a Note");
+    int slot = tree().find(PackedNote.identity(PackedNote.pack(n)));
+    if (slot == NoteTree.NIL) {
+      System.out.print("Couldn't find note");
+      return;
+    }
+    long old = notes.key(slot);
+    Note stored = PackedNote.toNote(old);
+    switch (nf) {
+      case PITCH:
+        try {
+          stored.setPitch(parsePitch(change));
+        }
+        catch (NullPointerException npe) {
+          System.out.print("Could not edit note, please try again");
+          return;
+        }
+        break;
+      case START:
+        try {
+          stored.setStart(Integer.parseInt(change));
+        }
+        catch (NumberFormatException u) {
+          System.out.print("Invalid note start");
+        }
+        break;
+      case DURATION:
+        try {
+          stored.setDuration(Integer.parseInt(change));
+        }
+        catch (NumberFormatException u) {
+          System.out.print("Invalid note duration");
+        }
+        break;
+      case VOLUME:
+        try {
+          stored.setVolume(Integer.parseInt(change));
+        }
+        catch (NumberFormatException u) {
+          System.out.print("Invalid note volume");
+        }
+        break;
+      case INSTRUMENT:
+        try {
+          stored.setInstrument(Integer.parseInt(change));
+        }
+        catch (NumberFormatException u) {
+          System.out.print("Invalid note instrument");
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Not a valid part of a Note");
+    }
+    replace(n, slot, old, PackedNote.pack(stored));
+  }
+
+  @Override
+  public void editNote(Note n, NoteEdit edit) {
+    int slot = tree().find(PackedNote.identity(PackedNote.pack(n)));
+    if (slot == NoteTree.NIL) {
+      System.out.print("Couldn't find note");
+      return;
+    }
+    long old = notes.key(slot);
+    replace(n, slot, old, edit.apply(old));
+  }
+
+  @Override
+  public void setDuration(Note n, int duration) {
+    editNote(n, NoteEdit.NONE.duration(duration));
+  }
+
+  @Override
+  public void setPitch(Note n, int index) {
+    editNote(n, NoteEdit.NONE.pitch(index));
+  }
+
+  @Override
+  public void shift(Note n, int beats) {
+    editNote(n, NoteEdit.NONE.shift(beats));
+  }
+
+  /**
+   * Replaces the note in the given slot with the given packed note, re-indexing it once,
+   * and makes the caller's note the same as the new one.
+   * @param n     the caller's note
+   * @param slot  the slot holding the note
+   * @param old   the packed note in the slot
+   * @param key   the packed note to replace it with
+   */
+  private void replace(Note n, int slot, long old, long key) {
+    if (key != old) {
+      // the note's place in the tree depends on it, so it is moved rather than changed
+      remove(slot);
+      insert(key);
+      events.noteEdited(old, key);
+      // a note being stretched a beat at a time is undone in one go
+      if (replaying || inAction || !PackedNote.sameButDuration(old, key)
+              || !journal.extend(old, key)) {
+        record(UndoJournal.EDIT, old, key);
+      }
+    }
+    PackedNote.copyTo(key, n);
+  }
+
+  /**
+   * Adds the given packed note to the tree of notes and counts its pitch.
+   * @param key the packed note
+   */
+  private void insert(long key) {
+    if (batchDepth > 0) {
+      if (pendingCount == pending.length) {
+        pending = Arrays.copyOf(pending, pendingCount * 2);
       }
+      if (pendingCount > 0 && key < pending[pendingCount - 1]) {
+        pendingSorted = false;
+      }
+      pending[pendingCount++] = key;
     }
     else {
-      System.out.print("Couldn't find note");
+      notes.insert(key);
+    }
+    version++;
+    hashNote(key, 1);
+    countPitch(PackedNote.pitch(key), 1);
+    measures.count(PackedNote.start(key), PackedNote.end(key), 1, version);
+    if (!gridStale) {
+      beatXPitch.add(PackedNote.start(key), PackedNote.duration(key), PackedNote.pitch(key));
+    }
+  }
+
+  /**
+   * Puts every note added during a batch into the tree of notes, all at once.
+   */
+  private void flush() {
+    if (pendingCount > 0) {
+      if (!pendingSorted) {
+        Arrays.sort(pending, 0, pendingCount);
+      }
+      notes.addAll(pending, pendingCount);
+      pendingCount = 0;
+      pendingSorted = true;
     }
   }
 
+  /**
+   * The tree of notes, once any notes waiting to go into it have been added.
+   * @return the tree of notes
+   */
+  private NoteTree tree() {
+    flush();
+    return notes;
+  }
+
+  /**
+   * Starts a batch: notes added until the matching {@code endBatch} are indexed together, and
+   * listeners hear about the changes once it ends.
+   */
+  private void beginBatch() {
+    batchDepth++;
+    events.hold();
+  }
+
+  /**
+   * Ends a batch, indexing its notes and telling the listeners if it was the outermost one.
+   */
+  private void endBatch() {
+    if (--batchDepth == 0) {
+      flush();
+      inAction = false;
+    }
+    events.release();
+  }
+
+  /**
+   * Ends the current undoable action, so that the next change starts a new one even within
+   * a batch.
+   */
+  void endAction() {
+    inAction = false;
+  }
+
+  /**
+   * Records a change in the undo history, unless it is being made by an undo or redo. Each
+   * change is an action of its own, except that a batch is one action.
+   * @param kind  the kind of change, such as {@code UndoJournal.ADD}
+   * @param a     the change's one value
+   */
+  private void record(int kind, long a) {
+    if (!replaying) {
+      journal.record(startsAction(), kind, a);
+    }
+  }
+
+  /**
+   * Records a change with two values in the undo history, as {@code record} does.
+   * @param kind  the kind of change
+   * @param a     the change's first value
+   * @param b     the change's second value
+   */
+  private void record(int kind, long a, long b) {
+    if (!replaying) {
+      journal.record(startsAction(), kind, a, b);
+    }
+  }
+
+  /**
+   * Records a change to the repeats or ending in the undo history, as {@code record} does.
+   * @param kind    the kind of change
+   * @param before  the packed repeats before the change
+   * @param after   the packed repeats after it
+   */
+  private void record(int kind, long[] before, long[] after) {
+    if (!replaying) {
+      long[] values = new long[1 + before.length + after.length];
+      values[0] = before.length;
+      System.arraycopy(before, 0, values, 1, before.length);
+      System.arraycopy(after, 0, values, 1 + before.length, after.length);
+      journal.record(startsAction(), kind, values, values.length);
+    }
+  }
+
+  /**
+   * Whether the change about to be recorded starts a new undoable action.
+   */
+  private boolean startsAction() {
+    boolean start = !inAction;
+    inAction = batchDepth > 0;
+    return start;
+  }
+
+  @Override
+  public void addAll(Collection<Note> toAdd) {
+    beginBatch();
+    try {
+      for (Note n : toAdd) {
+        long key = PackedNote.pack(n);
+        insert(key);
+        events.noteAdded(key);
+        record(UndoJournal.ADD, key);
+      }
+    }
+    finally {
+      endBatch();
+    }
+  }
+
+  /**
+   * Adds the notes of the given sorted runs, merged in order, so that they go into the tree
+   * of notes in one bulk build rather than one at a time.
+   * @param runs  the sorted runs
+   */
+  void addRuns(List<NoteRun> runs) {
+    long[] merged = NoteRun.merge(runs);
+    beginBatch();
+    try {
+      for (long key : merged) {
+        insert(key);
+        events.noteAdded(key);
+        record(UndoJournal.ADD, key);
+      }
+    }
+    finally {
+      endBatch();
+    }
+  }
+
+  @Override
+  public void batch(Consumer<IMusicModel> change) {
+    beginBatch();
+    try {
+      change.accept(this);
+    }
+    finally {
+      endBatch();
+    }
+  }
+
+  @Override
+  public void addListener(ModelListener l) {
+    events.addListener(l);
+  }
+
+  @Override
+  public void removeListener(ModelListener l) {
+    events.removeListener(l);
+  }
+
+  /**
+   * Removes the note in the given slot of the tree of notes and uncounts its pitch.
+   * @param slot  the slot holding the note
+   */
+  private void remove(int slot) {
+    long key = notes.key(slot);
+    int pitch = PackedNote.pitch(key);
+    int from = PackedNote.start(key);
+    int to = PackedNote.end(key);
+    countPitch(pitch, -1);
+    hashNote(key, -1);
+    notes.remove(slot);
+    version++;
+    measures.count(from, to, -1, version);
+    if (gridStale) {
+      return;
+    }
+    // other notes with the same pitch may overlap this one, so they are marked again
+    beatXPitch.clear(from, to, pitch);
+    NoteCursor c = notes.cursor(from, to, pitch, pitch);
+    while (c.next()) {
+      beatXPitch.add(c.getStart(), c.getDuration(), pitch, from, to);
+    }
+  }
+
+  /**
+   * Adds a note's hashes to, or takes them from, the sums behind the fingerprint.
+   * @param key     the packed note
+   * @param change  1 if the note was added, -1 if it was removed
+   */
+  private void hashNote(long key, int change) {
+    long identity = PackedNote.identity(key);
+    noteHashHigh += change * Fingerprint.high(identity);
+    noteHashLow += change * Fingerprint.low(identity);
+  }
+
   /**
    * In @code{editNote}, the new desired pitch is given in a string format.
    * This method return the OctavePitch desired based on the input
@@ -148,10 +444,10 @@ public final class MusicModel implements IMusicModel {
   private OctavePitch parsePitch(String in) {
     try {
       if (in.charAt(1) == '#') {
-        return new OctavePitch(pitchNames.get(in.substring(0, 2)),
+        return OctavePitch.of(pitchNames.get(in.substring(0, 2)),
                 Integer.parseInt(in.substring(2)));
       } else {
-        return new OctavePitch(pitchNames.get(in.substring(0, 0)),
+        return OctavePitch.of(pitchNames.get(in.substring(0, 0)),
                 Integer.parseInt(in.substring(1)));
       }
     }
@@ -162,116 +458,602 @@ public final class MusicModel implements IMusicModel {
   }
 
 
+  /**
+   * Incorporates the given music piece into this music piece. The other piece's notes are
+   * already in order, and moving them all by the same number of beats keeps them in order,
+   * so they are merged with this piece's notes in O(n + m) without sorting. Every part of
+   * each note is kept, and the other piece's repeats are moved along with its notes.
+   */
   @Override
   public void combine(IMusicModel other, int insert) {
-    if (other.getNotes().get(0).getStart() + insert >= 0) {
-      for (Note n : other.getNotes()) {
-        notes.add(new Note(n.getPitch(), n.getStart() + insert, n.getDuration()));
+    combineAll(Collections.singletonList(other), new int[]{insert});
+  }
+
+  /**
+   * Incorporates all the given music pieces into this music piece at once, with a k-way
+   * merge: a heap holds the next note of each piece, so the notes of all k pieces come out
+   * in order in O(m log k) and are then merged with this piece's notes in O(n + m).
+   */
+  @Override
+  public void combineAll(List<IMusicModel> others, int[] offsets) {
+    if (others.size() != offsets.length) {
+      throw new IllegalArgumentException("Each piece needs its own offset");
+    }
+    List<ModelSnapshot> pieces = new ArrayList<>(others.size());
+    for (IMusicModel other : others) {
+      // a piece combined with this one is read as it was before the combine began
+      pieces.add(other.snapshot());
+    }
+    combineSnapshots(pieces, offsets);
+  }
+
+  /**
+   * Incorporates the given snapshots of music pieces into this music piece, as
+   * {@code combineAll} does. A caller that locks this model can take the other pieces'
+   * snapshots first, so that it never holds two models' locks at once.
+   * @param pieces  the snapshots of the pieces
+   * @param offsets how many beats later to move the notes of each piece
+   */
+  void combineSnapshots(List<ModelSnapshot> pieces, int[] offsets) {
+    if (pieces.size() != offsets.length) {
+      throw new IllegalArgumentException("Each piece needs its own offset");
+    }
+    int k = pieces.size();
+    NoteCursor[] cursors = new NoteCursor[k];
+    long[] heads = new long[k]; // the next note of each piece, moved by its offset
+    PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, k),
+        (x, y) -> Long.compare(heads[x], heads[y]));
+    List<Repeat> moved = new ArrayList<>();
+    for (int i = 0; i < k; i++) {
+      ModelSnapshot other = pieces.get(i);
+      cursors[i] = other.cursor();
+      if (cursors[i].next()) {
+        if (cursors[i].getStart() + offsets[i] < 0) {
+          System.out.print("cannot start the piece at a negative beat");
+          return;
+        }
+        heads[i] = shifted(cursors[i], offsets[i]);
+        heap.add(i);
       }
       for (Repeat r : other.getRepeats().values()) {
-        Repeat rep = new Repeat(r.getGoBack(), r.getMark());
-        addRepeat(rep);
+        if (r.getGoBack() + offsets[i] >= 0) {
+          moved.add(new Repeat(r.getGoBack() + offsets[i], r.getMark() + offsets[i]));
+        }
       }
-      sortNotes();
-      setPitchRange();
-      initBeatXPitch();
     }
-    else {
-      System.out.print("cannot start the piece at a negative beat");
+    beginBatch();
+    try {
+      while (!heap.isEmpty()) {
+        int i = heap.poll();
+        insert(heads[i]);
+        events.noteAdded(heads[i]);
+        record(UndoJournal.ADD, heads[i]);
+        if (cursors[i].next()) {
+          heads[i] = shifted(cursors[i], offsets[i]);
+          heap.add(i);
+        }
+      }
+      for (Repeat r : moved) {
+        addRepeat(r);
+      }
+    }
+    finally {
+      endBatch();
     }
   }
 
+  /**
+   * The packed form of the cursor's current note, moved by the given number of beats.
+   * @param c       a cursor on a note
+   * @param offset  how many beats later to move the note
+   * @return the packed note
+   */
+  private static long shifted(NoteCursor c, int offset) {
+    return PackedNote.pack(c.getStart() + offset, c.getDuration(), c.getPitchIndex(),
+            c.getInstrument(), c.getVolume());
+  }
+
   @Override
   public void addRepeat(Repeat r) {
     if (r.getMark() <= this.length()) {
+      long[] before = pack(repeats.values());
+      ownRepeats();
       repeats.put(r.getMark(), r);
+      version++;
+      events.changed(ModelEvent.Type.REPEATS_CHANGED);
+      record(UndoJournal.REPEATS, before, pack(repeats.values()));
+    }
+  }
+
+  /**
+   * Copies the repeats map before it is changed if a snapshot holds it.
+   */
+  private void ownRepeats() {
+    if (repeatsShared) {
+      repeats = new HashMap<>(repeats);
+      repeatsShared = false;
     }
   }
 
   @Override
   public void setPitchRange() {
-    pitchRange.clear();
-    if (!notes.isEmpty()) {
-      for (Note n : notes) {
-        if (!pitchRange.contains(n.getPitch())) {
-          pitchRange.add(n.getPitch());
-        }
+    Arrays.fill(pitchCounts, 0);
+    lowest = -1;
+    highest = -1;
+    NoteCursor c = cursor();
+    while (c.next()) {
+      countPitch(c.getPitchIndex(), 1);
+    }
+    rangeChanged = true;
+  }
+
+  /**
+   * Updates how many notes have the pitch at the given index, and the lowest and highest
+   * pitches in use if that changes them.
+   * @param index   the index of the pitch, as given by {@code OctavePitch.index}
+   * @param change  1 if a note with this pitch was added, -1 if one was removed
+   */
+  private void countPitch(int index, int change) {
+    pitchCounts[index] += change;
+    if (change > 0) {
+      if (lowest == -1 || index < lowest) {
+        lowest = index;
+        rangeChanged = true;
       }
-      sortPitches();
-      OctavePitch hi = pitchRange.get(pitchRange.size() - 1);
-      for (int o = pitchRange.get(0).oct; o <= hi.oct; o++) {
-        for (int p = 0; (o == hi.oct && p <= Pitch.pitchOrder.indexOf(hi)) || p < 12; p++) {
-          if ((p >= Pitch.pitchOrder.indexOf(pitchRange.get(0).pitch) || o != pitchRange.get(0).oct)
-                  && (p <= Pitch.pitchOrder.indexOf(hi.pitch) || o != hi.oct)
-                  && !pitchRange.contains(new OctavePitch(Pitch.pitchOrder.get(p), o))) {
-            pitchRange.add(new OctavePitch(Pitch.pitchOrder.get(p), o));
-          }
-        }
+      if (index > highest) {
+        highest = index;
+        rangeChanged = true;
+      }
+    }
+    else if (pitchCounts[index] == 0 && (index == lowest || index == highest)) {
+      while (lowest <= highest && pitchCounts[lowest] == 0) {
+        lowest++;
+      }
+      while (highest >= lowest && pitchCounts[highest] == 0) {
+        highest--;
       }
-      sortPitches();
+      if (lowest > highest) {
+        lowest = -1;
+        highest = -1;
+      }
+      rangeChanged = true;
     }
   }
 
   /**
-   * Sets up the grid of beats x pitch, with all values defaulted to -1.
+   * The range of pitches from the lowest to the highest pitch in use, rebuilt only if either
+   * of them has changed since it was last asked for.
+   * @return the pitch range, lowest first
    */
-  public void initBeatXPitch() {
-    beatXPitch.clear();
-    for (int b = 0; b <= length(); b++) {
-      beatXPitch.add(new ArrayList<>());
-      for (int p = 0; p < pitchRange.size(); p++) {
-        beatXPitch.get(b).add(p, -1);
+  private List<OctavePitch> range() {
+    if (rangeChanged) {
+      pitchRange.clear();
+      for (int i = lowest; i != -1 && i <= highest; i++) {
+        pitchRange.add(OctavePitch.fromIndex(i));
       }
+      rangeChanged = false;
     }
+    return pitchRange;
+  }
+
+  /**
+   * Empties the grid of beats x pitch, so every value in it is -1.
+   */
+  public void initBeatXPitch() {
+    beatXPitch.clear();
   }
 
   @Override
   public void setBeatXPitch() {
-    beatXPitch.clear();
     initBeatXPitch();
-    for (Note n : notes) {
-      beatXPitch.get(n.getStart()).set(pitchRange.indexOf(n.getPitch()), 1);
-      for (int i = 1; i < n.getDuration(); i++) {
-        beatXPitch.get(n.getStart() + i).set(pitchRange.indexOf(n.getPitch()), 0);
+    NoteCursor c = cursor();
+    while (c.next()) {
+      beatXPitch.add(c.getStart(), c.getDuration(), c.getPitchIndex());
+    }
+    gridStale = false;
+  }
+
+  @Override
+  public int getBeatXPitch(int beat, OctavePitch p) {
+    if (!gridStale) {
+      return beatXPitch.get(beat, p.getIndex());
+    }
+    int result = -1;
+    NoteCursor c = notesAtPitch(p.getIndex(), beat, beat + 1);
+    while (c.next()) {
+      if (c.getStart() == beat) {
+        return 1;
       }
+      result = 0;
     }
+    return result;
   }
 
   @Override
   public void setTempo(int tempo) {
-    this.tempo = tempo;
+    if (this.tempo != tempo) {
+      record(UndoJournal.TEMPO, this.tempo, tempo);
+      this.tempo = tempo;
+      version++;
+      events.changed(ModelEvent.Type.TEMPO_CHANGED);
+    }
   }
 
   @Override
   public void setRepeats (Map<Integer, Repeat> reps) {
+    long[] before = pack(repeats.values());
+    ownRepeats();
     repeats.clear();
+    version++;
+    int length = length();
     for (Repeat r : reps.values()) {
-      addRepeat(r);
+      if (r.getMark() <= length) {
+        repeats.put(r.getMark(), r);
+      }
     }
+    events.changed(ModelEvent.Type.REPEATS_CHANGED);
+    record(UndoJournal.REPEATS, before, pack(repeats.values()));
+  }
+
+  @Override
+  public void insertTime(int beat, int beats) {
+    if (beat < 0 || beats < 0) {
+      throw new IllegalArgumentException("Cannot insert a negative amount of time");
+    }
+    if (beats > 0) {
+      beginBatch();
+      try {
+        moveTime(beat, beats);
+      }
+      finally {
+        endBatch();
+      }
+    }
+  }
+
+  @Override
+  public void deleteTime(int beat, int beats) {
+    if (beat < 0 || beats < 0) {
+      throw new IllegalArgumentException("Cannot delete a negative amount of time");
+    }
+    if (beats == 0) {
+      return;
+    }
+    beginBatch();
+    try {
+      NoteCursor c = tree().cursor(beat, beat + beats);
+      List<Long> gone = new ArrayList<>();
+      while (c.next()) {
+        if (c.getStart() >= beat) {
+          gone.add(PackedNote.pack(c.getStart(), c.getDuration(), c.getPitchIndex(),
+                  c.getInstrument(), c.getVolume()));
+        }
+      }
+      for (long key : gone) {
+        int slot = notes.find(PackedNote.identity(key));
+        events.noteRemoved(notes.key(slot));
+        record(UndoJournal.REMOVE, notes.key(slot));
+        remove(slot);
+      }
+      moveTime(beat + beats, -beats);
+    }
+    finally {
+      endBatch();
+    }
+  }
+
+  /**
+   * Moves every note starting at or after the given beat, and the repeats and ending, by the
+   * given number of beats. Moving earlier must not take a note past one that is not moved.
+   * The notes themselves are moved in O(log n).
+   * @param from  the first beat to move
+   * @param beats how far to move, which is earlier if negative
+   */
+  private void moveTime(int from, int beats) {
+    moveNotes(from, beats);
+    record(UndoJournal.TIME, from, beats);
+    long[] before = pack(repeats.values());
+    Map<Integer, Repeat> moved = new HashMap<>();
+    boolean changed = false;
+    for (Repeat r : repeats.values()) {
+      Repeat rep = moved(r, from, beats);
+      changed |= rep != r;
+      if (rep != null) {
+        moved.put(rep.getMark(), rep);
+      }
+    }
+    if (changed) {
+      repeats = moved;
+      repeatsShared = false;
+      events.changed(ModelEvent.Type.REPEATS_CHANGED);
+      record(UndoJournal.REPEATS, before, pack(repeats.values()));
+    }
+    if (end != null) {
+      List<Repeat> parts = new ArrayList<>();
+      parts.add(end.getBuildUp());
+      parts.addAll(end.getEndings());
+      changed = false;
+      for (int i = 0; i < parts.size(); i++) {
+        Repeat rep = moved(parts.get(i), from, beats);
+        changed |= rep != parts.get(i);
+        parts.set(i, rep);
+      }
+      if (changed) {
+        before = pack(end);
+        end = parts.contains(null) ? null : new MultiEnding(parts);
+        events.changed(ModelEvent.Type.ENDING_CHANGED);
+        record(UndoJournal.ENDING, before, pack(end));
+      }
+    }
+  }
+
+  /**
+   * Moves every note starting at or after the given beat by the given number of beats, as
+   * {@code moveTime} does, leaving the repeats and ending where they are.
+   * @param from  the first beat to move
+   * @param beats how far to move, which is earlier if negative
+   */
+  private void moveNotes(int from, int beats) {
+    int first = Math.min(from, from + beats); // the first beat whose notes change
+    tree().shiftFrom(from, beats);
+    version++;
+    // the grid and measure counts would have to be moved row by row, so they are left to be
+    // remade: the grid by setBeatXPitch, the counts when next asked for
+    gridStale = true;
+    hashStale = true;
+    measures.moved(first, version);
+    events.notesChanged(first, Integer.MAX_VALUE);
+  }
+
+  /**
+   * The given repeat with its beats moved as {@code moveTime} moves them. Beats in a stretch
+   * of time being deleted are moved to its start.
+   * @param r     the repeat
+   * @param from  the first beat to move
+   * @param beats how far to move, which is earlier if negative
+   * @return the moved repeat, or null if nothing is left of it
+   */
+  private static Repeat moved(Repeat r, int from, int beats) {
+    int goBack = r.getGoBack() >= from ? r.getGoBack() + beats
+            : Math.min(r.getGoBack(), from + beats);
+    int mark = r.getMark() >= from ? r.getMark() + beats : Math.min(r.getMark(), from + beats);
+    if (goBack == r.getGoBack() && mark == r.getMark()) {
+      return r;
+    }
+    return mark > goBack ? new Repeat(goBack, mark) : null;
   }
 
   @Override
   public void setMultiEnding(MultiEnding m) {
     if (m.getEndings().get(m.getEndings().size() - 1).getMark() == length() + 1) {
+      record(UndoJournal.ENDING, pack(end), pack(m));
       this.end = m;
+      version++;
+      events.changed(ModelEvent.Type.ENDING_CHANGED);
+    }
+  }
+
+  @Override
+  public void undo() {
+    replay(true);
+  }
+
+  @Override
+  public void redo() {
+    replay(false);
+  }
+
+  /**
+   * Sets how much memory the undo history may use, forgetting the history so far. Once the
+   * history is full, the oldest actions are forgotten to make room for new ones, and an
+   * action too big to fit at all cannot be undone.
+   * @param bytes the most memory, in bytes, which is rounded down to a power of two
+   */
+  public void setUndoLimit(int bytes) {
+    journal = new UndoJournal(bytes);
+  }
+
+  /**
+   * Undoes or redoes one action, as one batch that is not itself recorded.
+   * @param undo  true to undo, false to redo
+   */
+  private void replay(boolean undo) {
+    inAction = false;
+    replaying = true;
+    beginBatch();
+    try {
+      if (undo) {
+        journal.undo(this::replay);
+      }
+      else {
+        journal.redo(this::replay);
+      }
+    }
+    finally {
+      endBatch();
+      replaying = false;
+    }
+  }
+
+  /**
+   * Undoes or redoes one record of the undo history.
+   * @param kind    the kind of record
+   * @param values  the record's payload
+   * @param length  the length of the payload
+   * @param undo    true to undo the record, false to redo it
+   */
+  private void replay(int kind, long[] values, int length, boolean undo) {
+    switch (kind) {
+      case UndoJournal.ADD:
+      case UndoJournal.REMOVE:
+        if ((kind == UndoJournal.ADD) == undo) {
+          removeKey(values[0]);
+        }
+        else {
+          insert(values[0]);
+          events.noteAdded(values[0]);
+        }
+        break;
+      case UndoJournal.EDIT:
+        long from = values[undo ? 1 : 0];
+        long to = values[undo ? 0 : 1];
+        removeKey(from);
+        insert(to);
+        events.noteEdited(from, to);
+        break;
+      case UndoJournal.TEMPO:
+        setTempo((int) values[undo ? 0 : 1]);
+        break;
+      case UndoJournal.TIME:
+        int beat = (int) values[0];
+        int beats = (int) values[1];
+        if (undo) {
+          moveNotes(beat + beats, -beats);
+        }
+        else {
+          moveNotes(beat, beats);
+        }
+        break;
+      case UndoJournal.REPEATS:
+        int n = (int) values[0];
+        int first = undo ? 1 : 1 + n;
+        int last = undo ? 1 + n : length;
+        repeats = new HashMap<>();
+        repeatsShared = false;
+        for (int i = first; i < last; i++) {
+          Repeat r = unpack(values[i]);
+          repeats.put(r.getMark(), r);
+        }
+        version++;
+        events.changed(ModelEvent.Type.REPEATS_CHANGED);
+        break;
+      case UndoJournal.ENDING:
+        int parts = (int) values[0];
+        end = undo ? unpackEnding(values, 1, parts)
+                : unpackEnding(values, 1 + parts, length - 1 - parts);
+        version++;
+        events.changed(ModelEvent.Type.ENDING_CHANGED);
+        break;
+      default:
+        throw new IllegalStateException("Unknown undo record " + kind);
+    }
+  }
+
+  /**
+   * Removes a note that is exactly the given packed note.
+   * @param key the packed note
+   */
+  private void removeKey(long key) {
+    int slot = tree().findKey(key);
+    if (slot != NoteTree.NIL) {
+      remove(slot);
+      events.noteRemoved(key);
+    }
+  }
+
+  /**
+   * Packs a repeat into a long, its goBack in the high half and its mark in the low half.
+   * @param r the repeat, or null
+   * @return the packed repeat, or {@code NO_REPEAT} if it is null
+   */
+  private static long pack(Repeat r) {
+    return r == null ? NO_REPEAT : ((long) r.getGoBack() << 32) | (r.getMark() & 0xFFFFFFFFL);
+  }
+
+  private static Repeat unpack(long packed) {
+    return packed == NO_REPEAT ? null : new Repeat((int) (packed >> 32), (int) packed);
+  }
+
+  private static long[] pack(Collection<Repeat> reps) {
+    long[] result = new long[reps.size()];
+    int i = 0;
+    for (Repeat r : reps) {
+      result[i++] = pack(r);
+    }
+    return result;
+  }
+
+  /**
+   * Packs a multi-ending as its build-up followed by its endings.
+   * @param m the multi-ending, or null
+   * @return the packed parts, which are none if it is null
+   */
+  private static long[] pack(MultiEnding m) {
+    if (m == null) {
+      return new long[0];
+    }
+    long[] result = new long[1 + m.getEndings().size()];
+    result[0] = pack(m.getBuildUp());
+    for (int i = 0; i < m.getEndings().size(); i++) {
+      result[i + 1] = pack(m.getEndings().get(i));
+    }
+    return result;
+  }
+
+  private static MultiEnding unpackEnding(long[] values, int from, int count) {
+    if (count == 0) {
+      return null;
     }
+    List<Repeat> endings = new ArrayList<>();
+    for (int i = 1; i < count; i++) {
+      endings.add(unpack(values[from + i]));
+    }
+    return new MultiEnding(unpack(values[from]), endings);
   }
 
   @Override
   public int length() {
-    int longest = 0;
-    sortNotes();
-    for (Note n : notes) {
-      if (n.getStart() + n.getDuration() - 1 > longest) {
-        longest = n.getStart() + n.getDuration() - 1;
+    return Math.max(0, tree().maxEnd() - 1);
+  }
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public int getNoteCount() {
+    return notes.size() + pendingCount;
+  }
+
+  /**
+   * The fingerprint of this piece, which is kept up to date as each note changes. After
+   * time is inserted or deleted, it is found again from every note the next time it is
+   * asked for.
+   */
+  @Override
+  public Fingerprint getFingerprint() {
+    if (hashStale) {
+      noteHashHigh = 0;
+      noteHashLow = 0;
+      NoteCursor c = tree().cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+      while (c.next()) {
+        hashNote(PackedNote.pack(c.getStart(), c.getDuration(), c.getPitchIndex(), 0, 0), 1);
       }
+      hashStale = false;
     }
-    return longest;
+    return Fingerprint.of(noteHashHigh, noteHashLow, sig, tempo);
+  }
+
+  @Override
+  public int getMeasureNoteCount(int measure) {
+    int count = measures.noteCount(measure);
+    if (count < 0) {
+      int from = measures.firstUnknown() * measures.beatsPerMeasure();
+      measures.recount(tree().cursor(from, Integer.MAX_VALUE));
+      count = measures.noteCount(measure);
+    }
+    return count;
+  }
+
+  @Override
+  public long getMeasureVersion(int measure) {
+    return measures.changedAt(measure);
   }
 
   @Override
   public void sortNotes() {
-    this.notes.sort(new ByStart());
+    // the note tree always keeps the notes in order of their start beat
   }
 
   @Override
@@ -281,11 +1063,56 @@ public final class MusicModel implements IMusicModel {
 
   @Override
   public List<Note> getNotes() {
+    return tree().toList();
+  }
+
+  @Override
+  public NoteCursor cursor() {
+    return tree().cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public NoteCursor cursor(int start, int end) {
+    return tree().cursor(start, end);
+  }
+
+  @Override
+  public NoteCursor notesAtPitch(int index, int start, int end) {
+    return tree().cursor(start, end, index, index);
+  }
+
+  @Override
+  public NoteCursor notesInRect(int start, int end, int low, int high) {
+    return tree().cursor(start, end, low, high);
+  }
+
+  @Override
+  public List<Note> notesAt(int beat) {
     List<Note> result = new ArrayList<>();
-    result.addAll(notes);
+    tree().overlapping(beat, beat + 1, result);
     return result;
   }
 
+  @Override
+  public List<Note> notesInWindow(int start, int end) {
+    List<Note> result = new ArrayList<>();
+    tree().overlapping(start, end, result);
+    return result;
+  }
+
+  @Override
+  public ModelSnapshot snapshot() {
+    if (snapshot == null || snapshot.getVersion() != version) {
+      // only freeze when the snapshot is new, or the tree's pages would be copied again on
+      // the next edit after every read
+      repeatsShared = true;
+      snapshot = new ModelSnapshot(tree().freeze(), measures.freeze(), version, sig, tempo, lowest,
+              highest, repeats, end,
+              hashStale ? null : Fingerprint.of(noteHashHigh, noteHashLow, sig, tempo));
+    }
+    return snapshot;
+  }
+
   @Override
   public int getTempo() {
     int result = tempo * 1;
@@ -300,7 +1127,7 @@ public final class MusicModel implements IMusicModel {
   @Override
   public ArrayList<OctavePitch> getPitchRange() {
     ArrayList<OctavePitch> result = new ArrayList<>();
-    result.addAll(pitchRange);
+    result.addAll(range());
     return result;
   }
 
@@ -316,49 +1143,24 @@ public final class MusicModel implements IMusicModel {
 
   @Override
   public String printMusic() {
-    initBeatXPitch();
-    setPitchRange();
-    setBeatXPitch();
-    String result = "";
-    for (int n = 0; n < Integer.toString(length()).length(); n++) {
-      result += " ";
-    }
-    for (OctavePitch op : pitchRange) {
-      String p = op.toString();
-      int mid = (int) Math.ceil((5.0 - (double) p.length()) / 2);
-      for (int g = 0; g < mid; g++) {
-        p = " " + p;
-      }
-      while (p.length() < 5) {
-        p += " ";
-      }
-
-      result += p;
-    }
-    result += "\n";
-    for (int b = 0; b <= length(); b++) {
-      String num = Integer.toString(b);
-      while (num.length() < Integer.toString(length()).length()) {
-        num += " ";
-      }
-      result += num;
-      for (int p = 0; p < pitchRange.size(); p++) {
-        switch (beatXPitch.get(b).get(p)) {
-          case(-1): result += "     ";
-          break;
-          case(0): result += "  |  ";
-          break;
-          case(1): result += "  X  ";
-          break;
-          default: throw new IllegalArgumentException("invalid int value in beatXPitch");
-        }
-      }
-      result += "\n";
+    StringBuilder result = new StringBuilder();
+    try {
+      printMusic(result, 0, length() + 1);
     }
-    if (result.length() > 0) {
-      result = result.substring(0, result.length() - 1);
+    catch (IOException e) {
+      throw new IllegalStateException("a StringBuilder cannot fail to append", e);
+    }
+    return result.toString();
+  }
+
+  @Override
+  public void printMusic(Appendable out, int start, int end) throws IOException {
+    if (gridStale) {
+      BeatGrid.printWindow(out, tree(), lowest, highest, start, end);
+    }
+    else {
+      beatXPitch.print(out, length(), lowest, highest, start, end);
     }
-    return result;
   }
 
   @Override
@@ -373,10 +1175,11 @@ public final class MusicModel implements IMusicModel {
     }
     else if (o instanceof MusicModel){
       MusicModel other = (MusicModel) o;
-      return (this.notes.containsAll(other.notes)
-              && other.notes.containsAll(this.notes)
+      // pieces with different fingerprints are never equal, so most are told apart in O(1)
+      return (this.getFingerprint().equals(other.getFingerprint())
               && this.sig.equals(other.sig)
-              && this.tempo == other.tempo);
+              && this.tempo == other.tempo
+              && Fingerprint.sameNotes(this.cursor(), other.cursor()));
     }
     else {
       return false;
@@ -385,14 +1188,16 @@ public final class MusicModel implements IMusicModel {
 
   @Override
   public int hashCode() {
-    return Objects.hash(notes, sig, tempo);
+    return getFingerprint().hashCode();
   }
 
   /**
    * Represents a class that builds a composition for our MusicModel.
    */
-  public static final class Builder implements CompositionBuilder<IMusicModel> {
-    private IMusicModel model; // The model to build
+  public static final class Builder
+          implements ParallelCompositionBuilder<IMusicModel, NoteRun> {
+    private MusicModel model; // The model to build
+    private List<Note> notes = new ArrayList<>(); // Notes not yet added to the model
 
     /**
      * Constructor for building a model.
@@ -403,36 +1208,93 @@ public final class MusicModel implements IMusicModel {
 
     @Override
     public IMusicModel build() {
+      addNotes();
+      model.journal.clear(); // a piece just read in starts with nothing to undo
       return model;
     }
 
+    /**
+     * Sets the signature of the piece, which can only be done before any notes are added.
+     * @throws IllegalStateException if notes have already been added
+     */
+    @Override
+    public CompositionBuilder<IMusicModel> setSignature(int bpm, int beatLength) {
+      if (!notes.isEmpty() || model.getNoteCount() > 0) {
+        throw new IllegalStateException("The signature must be set before any notes");
+      }
+      model.sig = new Signature(bpm, beatLength);
+      model.measures = new MeasureStats(bpm);
+      return this;
+    }
+
     @Override
     public CompositionBuilder<IMusicModel> setTempo(int tempo) {
       model.setTempo(tempo);
       return this;
     }
 
+    @Override
+    public NoteRun newRun() {
+      return new NoteRun();
+    }
+
+    @Override
+    public void addNote(NoteRun run, int start, int end, int instrument, int pitch,
+                        int volume) {
+      if (instrument < 0 || instrument > 108) {
+        throw new IllegalArgumentException("An instrument must be between 0 and 108");
+      }
+      // the pitch is found as addNote finds it, so the same pitches are rejected
+      OctavePitch p = OctavePitch.of(Pitch.pitchOrder.get(pitch % 12), pitch / 12 - 1);
+      run.add(PackedNote.pack(start, end - start, p.getIndex(), instrument, volume));
+    }
+
+    @Override
+    public void finishRun(NoteRun run) {
+      run.sort();
+    }
+
+    @Override
+    public ParallelCompositionBuilder<IMusicModel, NoteRun> addRuns(List<NoteRun> runs) {
+      addNotes(); // notes added one at a time come first
+      model.addRuns(runs);
+      return this;
+    }
+
     @Override
     public CompositionBuilder<IMusicModel> addNote(int start, int end, int instrument,
                                                    int pitch, int volume) {
       Pitch p = Pitch.pitchOrder.get(pitch % 12);
       int oct = pitch / 12 - 1;
-      Note n = new Note(new OctavePitch(p, oct), start, end - start); // Constructs note
+      Note n = new Note(OctavePitch.of(p, oct), start, end - start); // Constructs note
                                                                     // using given parameters
       n.setInstrument(instrument); // Sets note's instrument
       n.setVolume(volume); // Sets note's volume
-      model.addNote(n); // Adds the note to the model
+      notes.add(n); // Saves the note to be added to the model with the others
       return this;
     }
 
+    /**
+     * Adds all the notes saved so far to the model at once, which is much faster than
+     * adding them one at a time.
+     */
+    private void addNotes() {
+      if (!notes.isEmpty()) {
+        model.addAll(notes);
+        notes.clear();
+      }
+    }
+
     @Override
     public CompositionBuilder<IMusicModel> addRepeat(int goBack, int mark) {
+      addNotes(); // a repeat is only kept if the notes reach it
       model.addRepeat(new Repeat(goBack, mark));
       return this;
     }
 
     @Override
     public CompositionBuilder<IMusicModel> addMultiEnding(List<Repeat> lor) {
+      addNotes(); // a multi-ending is only kept if it ends where the notes do
       model.setMultiEnding(new MultiEnding(lor));
       return this;
     }
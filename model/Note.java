@@ -95,7 +95,7 @@ public class Note {
    * @return    this.pitch
    */
   public OctavePitch getPitch() {
-    return new OctavePitch(octPitch.pitch, octPitch.oct);
+    return octPitch;
   }
 
   /**
@@ -0,0 +1,65 @@
+package cs3500.music.model;
+
+/**
+ * Steps through notes of an {@code IMusicModel} without creating a {@code Note} for each one.
+ * A cursor starts before its first note; each call to {@code next} moves it onto the next
+ * note, whose parts can then be read with the getters. A cursor should not be used after the
+ * model it came from has changed.
+ *
+ * <pre>
+ *   NoteCursor c = model.cursor();
+ *   while (c.next()) {
+ *     draw(c.getStart(), c.getDuration(), c.getPitchIndex());
+ *   }
+ * </pre>
+ */
+public interface NoteCursor {
+
+  /**
+   * Moves this cursor onto the next note.
+   * @return true if there was another note, false if the cursor is finished
+   */
+  boolean next();
+
+  /**
+   * The start beat of the current note.
+   * @return the start
+   */
+  int getStart();
+
+  /**
+   * The duration, in beats, of the current note.
+   * @return the duration
+   */
+  int getDuration();
+
+  /**
+   * The index of the current note's pitch, as given by {@code OctavePitch.getIndex}.
+   * @return the pitch index
+   */
+  int getPitchIndex();
+
+  /**
+   * The current note's pitch.
+   * @return the pitch
+   */
+  OctavePitch getPitch();
+
+  /**
+   * The instrument of the current note.
+   * @return the instrument
+   */
+  int getInstrument();
+
+  /**
+   * The volume of the current note.
+   * @return the volume
+   */
+  int getVolume();
+
+  /**
+   * Creates a {@code Note} with the same parts as the current note.
+   * @return a new note
+   */
+  Note toNote();
+}
@@ -0,0 +1,136 @@
+package cs3500.music.model;
+
+/**
+ * A set of changes to make to a note all at once, for {@code IMusicModel.editNote}. A
+ * NoteEdit cannot be changed; each method gives a new NoteEdit that also makes one more
+ * change, starting from {@code NONE}:
+ *
+ * <pre>
+ *   model.editNote(n, NoteEdit.NONE.pitch(48).shift(4)); // to middle C, 4 beats later
+ * </pre>
+ *
+ * <p>A pitch is given as its {@code OctavePitch.getIndex}, not its MIDI number: 48 is C4,
+ * middle C, whose MIDI number is 60.</p>
+ *
+ * <p>New values are set first, then the start is shifted and the duration extended.</p>
+ */
+public final class NoteEdit {
+
+  /**
+   * The edit that changes nothing.
+   */
+  public static final NoteEdit NONE = new NoteEdit(-1, -1, -1, -1, -1, 0, 0);
+
+  private static final int UNCHANGED = -1;
+
+  private final int pitch;
+  private final int start;
+  private final int duration;
+  private final int instrument;
+  private final int volume;
+  private final int shift;
+  private final int extend;
+
+  private NoteEdit(int pitch, int start, int duration, int instrument, int volume, int shift,
+                   int extend) {
+    this.pitch = pitch;
+    this.start = start;
+    this.duration = duration;
+    this.instrument = instrument;
+    this.volume = volume;
+    this.shift = shift;
+    this.extend = extend;
+  }
+
+  private static int checked(int value, String what) {
+    if (value < 0) {
+      throw new IllegalArgumentException(what + " cannot be negative");
+    }
+    return value;
+  }
+
+  /**
+   * This edit, also setting the note's pitch.
+   * @param index the new pitch, as its {@code OctavePitch.getIndex}, 12 below its MIDI number
+   * @return the new edit
+   */
+  public NoteEdit pitch(int index) {
+    return new NoteEdit(checked(index, "Pitch"), start, duration, instrument, volume, shift,
+            extend);
+  }
+
+  /**
+   * This edit, also setting the note's start beat.
+   * @param beat  the new start
+   * @return the new edit
+   */
+  public NoteEdit start(int beat) {
+    return new NoteEdit(pitch, checked(beat, "Start"), duration, instrument, volume, shift,
+            extend);
+  }
+
+  /**
+   * This edit, also setting the note's duration.
+   * @param beats the new duration
+   * @return the new edit
+   */
+  public NoteEdit duration(int beats) {
+    return new NoteEdit(pitch, start, checked(beats, "Duration"), instrument, volume, shift,
+            extend);
+  }
+
+  /**
+   * This edit, also setting the note's instrument.
+   * @param i the new instrument
+   * @return the new edit
+   */
+  public NoteEdit instrument(int i) {
+    if (i < 0 || i > 108) {
+      throw new IllegalArgumentException("An instrument must be between 0 and 108");
+    }
+    return new NoteEdit(pitch, start, duration, i, volume, shift, extend);
+  }
+
+  /**
+   * This edit, also setting the note's volume.
+   * @param v the new volume
+   * @return the new edit
+   */
+  public NoteEdit volume(int v) {
+    return new NoteEdit(pitch, start, duration, instrument, checked(v, "Volume"), shift,
+            extend);
+  }
+
+  /**
+   * This edit, also moving the note later by the given number of beats.
+   * @param beats how far to move the note, which is earlier if negative
+   * @return the new edit
+   */
+  public NoteEdit shift(int beats) {
+    return new NoteEdit(pitch, start, duration, instrument, volume, shift + beats, extend);
+  }
+
+  /**
+   * This edit, also making the note longer by the given number of beats.
+   * @param beats how much longer to make the note, which is shorter if negative
+   * @return the new edit
+   */
+  public NoteEdit extend(int beats) {
+    return new NoteEdit(pitch, start, duration, instrument, volume, shift, extend + beats);
+  }
+
+  /**
+   * Makes this edit to a packed note.
+   * @param packed  the packed note
+   * @return the packed note after the edit
+   * @throws IllegalArgumentException if the edited note is not a valid note
+   */
+  long apply(long packed) {
+    int s = start == UNCHANGED ? PackedNote.start(packed) : start;
+    int d = duration == UNCHANGED ? PackedNote.duration(packed) : duration;
+    return PackedNote.pack(s + shift, d + extend,
+            pitch == UNCHANGED ? PackedNote.pitch(packed) : pitch,
+            instrument == UNCHANGED ? PackedNote.instrument(packed) : instrument,
+            volume == UNCHANGED ? PackedNote.volume(packed) : volume);
+  }
+}
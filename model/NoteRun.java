@@ -0,0 +1,77 @@
+package cs3500.music.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A run of packed notes read by one thread for {@code MusicModel.Builder}, to be sorted on
+ * that thread and later merged with the other runs into the model all at once.
+ */
+public final class NoteRun {
+
+  private long[] keys = new long[64];
+  private int count;
+
+  /**
+   * Adds a packed note to this run.
+   * @param key the packed note
+   */
+  void add(long key) {
+    if (count == keys.length) {
+      keys = Arrays.copyOf(keys, count * 2);
+    }
+    keys[count++] = key;
+  }
+
+  /**
+   * Puts the notes of this run in order.
+   */
+  void sort() {
+    Arrays.sort(keys, 0, count);
+  }
+
+  /**
+   * The number of notes in this run.
+   * @return the number of notes
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Merges sorted runs into one sorted array with a k-way merge: a heap holds the next note
+   * of each run, so the m notes of k runs come out in order in O(m log k).
+   * @param runs  the sorted runs
+   * @return the notes of all the runs, in order
+   */
+  static long[] merge(List<NoteRun> runs) {
+    int total = 0;
+    for (NoteRun r : runs) {
+      total += r.count;
+    }
+    long[] merged = new long[total];
+    if (runs.size() == 1) {
+      System.arraycopy(runs.get(0).keys, 0, merged, 0, total);
+      return merged;
+    }
+    int[] next = new int[runs.size()]; // the index of each run's next note
+    PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, runs.size()),
+        (x, y) -> Long.compare(runs.get(x).keys[next[x]], runs.get(y).keys[next[y]]));
+    for (int i = 0; i < runs.size(); i++) {
+      if (runs.get(i).count > 0) {
+        heap.add(i);
+      }
+    }
+    int at = 0;
+    while (!heap.isEmpty()) {
+      int i = heap.poll();
+      NoteRun r = runs.get(i);
+      merged[at++] = r.keys[next[i]++];
+      if (next[i] < r.count) {
+        heap.add(i);
+      }
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,848 @@
+package cs3500.music.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An interval tree holding the notes of a {@code MusicModel}. Notes are kept in order of
+ * their start beat (then duration, pitch, instrument and volume), and every node also knows
+ * the latest end beat in its subtree, so the notes sounding at a beat or overlapping a window
+ * of beats can be found without looking at every note. Every node also keeps a mask of the
+ * pitches in its subtree, one bit for each pair of neighbouring pitches, so a query for a
+ * range of pitches skips the subtrees that have none of them.
+ *
+ * <p>The tree is a treap, so adding and removing a note is O(log n) expected, and the
+ * queries are O(log n + k), where k is the number of notes found; a query for a range of
+ * pitches is O(log n) for each note found when the notes it skips are spread through the
+ * tree, rather than depending on how many notes of other pitches the window holds.</p>
+ *
+ * <p>Nodes are not objects: each node is a slot in a set of parallel primitive arrays, and
+ * holds its note packed into a long by {@code PackedNote}. A treap node's priority is a hash
+ * of its slot number, so it does not need to be stored either.</p>
+ *
+ * <p>A tree that can change also keeps an {@code IdentityIndex} from each note's identity to
+ * a slot holding it, so {@code find} is O(1) expected.</p>
+ *
+ * <p>{@code shiftFrom} moves every note from a beat onwards in O(log n): it splits those
+ * notes off, moves the root of their subtree, and leaves the rest of the move as a pending
+ * offset on that node, which is passed down to a node's children the next time a change goes
+ * through it. Readers add up the pending offsets on their way down instead. Until every
+ * offset has been passed down, the keys held by slots deep in the tree may be out of date,
+ * so the identity index is not used; {@code find} searches the tree, and once it has done so
+ * as many times as there are notes, the tree is rebuilt in O(n) with no offsets left.</p>
+ *
+ * <p>The arrays are split into pages of {@code PAGE_SIZE} slots so that {@code freeze} can
+ * hand out an unchanging copy of the tree in O(1): the copy shares every page, and this tree
+ * copies a page the first time it writes to it after a freeze.</p>
+ */
+final class NoteTree {
+
+  /**
+   * The slot number standing for no node at all.
+   */
+  static final int NIL = -1;
+
+  private static final int PAGE_BITS = 10;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private long[][] keys = new long[0][]; // the packed note in each slot
+  private int[][] left = new int[0][]; // also links the free slots together
+  private int[][] right = new int[0][];
+  private int[][] maxEnd = new int[0][];
+  private long[][] pitches = new long[0][]; // the mask of the pitches in each subtree
+  private int[][] offset = new int[0][]; // beats not yet added to the node's descendants
+  private int[] pageGeneration = new int[0]; // the generation each page was copied in
+  private int generation; // goes up with every freeze; pages from older ones may be shared
+  private boolean tablesShared; // whether a frozen copy holds these very page tables
+  private final boolean frozen;
+  private final IdentityIndex index; // null in a frozen tree
+  private int root = NIL;
+  private int size;
+  private int used; // the number of slots handed out so far
+  private int free = NIL; // the first slot that was handed out but is now unused
+  private boolean offsetsPending; // whether any node may have an offset not passed down
+  private int searches; // how many times find has searched since offsets became pending
+  private int splitRight; // the right part of the last split
+
+  /**
+   * Constructs an empty tree.
+   */
+  NoteTree() {
+    this.frozen = false;
+    this.index = new IdentityIndex();
+  }
+
+  /**
+   * Constructs a frozen copy of the given tree, sharing all of its pages.
+   * @param from  the tree to copy
+   */
+  private NoteTree(NoteTree from) {
+    this.frozen = true;
+    this.index = null;
+    this.keys = from.keys;
+    this.left = from.left;
+    this.right = from.right;
+    this.maxEnd = from.maxEnd;
+    this.pitches = from.pitches;
+    this.offset = from.offset;
+    this.pageGeneration = from.pageGeneration;
+    this.generation = from.generation;
+    this.root = from.root;
+    this.size = from.size;
+    this.used = from.used;
+    this.free = from.free;
+  }
+
+  /**
+   * A copy of this tree, as it is now, that can never change. The copy shares this tree's
+   * pages, so it takes O(1) to make; this tree copies a page before it next writes to it.
+   * @return the frozen copy
+   */
+  NoteTree freeze() {
+    if (frozen) {
+      return this;
+    }
+    NoteTree copy = new NoteTree(this);
+    tablesShared = true;
+    generation++;
+    return copy;
+  }
+
+  /**
+   * The number of notes in this tree.
+   * @return the size
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * The latest beat at which any note in this tree stops sounding, or 0 if it is empty.
+   * @return the greatest start + duration of all the notes
+   */
+  int maxEnd() {
+    return root == NIL ? 0 : maxEnd(root);
+  }
+
+  /**
+   * Removes every note from this tree.
+   */
+  void clear() {
+    checkWritable();
+    root = NIL;
+    size = 0;
+    used = 0;
+    free = NIL;
+    offsetsPending = false;
+    index.clear(0);
+  }
+
+  /**
+   * The packed note held in the given slot, which is up to date for a slot just given by
+   * {@code find} or {@code insert}.
+   * @param slot  a slot holding a note
+   * @return the packed note
+   */
+  long key(int slot) {
+    return keys[slot >>> PAGE_BITS][slot & PAGE_MASK];
+  }
+
+  /**
+   * Adds the given packed note to this tree.
+   * @param key the packed note to add
+   * @return the slot now holding the note
+   */
+  int insert(long key) {
+    int slot = allocate();
+    setKey(slot, key);
+    setLeft(slot, NIL);
+    setRight(slot, NIL);
+    setMaxEnd(slot, PackedNote.end(key));
+    setPitches(slot, pitchBit(PackedNote.pitch(key)));
+    setOffset(slot, 0);
+    root = insert(root, slot);
+    size++;
+    long identity = PackedNote.identity(key);
+    if (!offsetsPending && index.get(identity) == NIL) {
+      index.put(identity, slot);
+    }
+    return slot;
+  }
+
+  private int insert(int t, int n) {
+    if (t == NIL) {
+      return n;
+    }
+    push(t);
+    if (compare(n, t) < 0) {
+      setLeft(t, insert(left(t), n));
+      if (priority(left(t)) > priority(t)) {
+        t = rotateRight(t);
+      }
+    }
+    else {
+      setRight(t, insert(right(t), n));
+      if (priority(right(t)) > priority(t)) {
+        t = rotateLeft(t);
+      }
+    }
+    update(t);
+    return t;
+  }
+
+  /**
+   * Adds all the given packed notes to this tree. If there are many of them compared to the
+   * notes already here, the tree is rebuilt from the merged notes in O(n + k) rather than
+   * having each note inserted on its own.
+   * @param sorted  the packed notes to add, sorted from lowest to highest
+   * @param count   how many of the packed notes to add
+   */
+  void addAll(long[] sorted, int count) {
+    int depth = 32 - Integer.numberOfLeadingZeros(size + count);
+    if ((long) count * depth < size) {
+      for (int i = 0; i < count; i++) {
+        insert(sorted[i]);
+      }
+      return;
+    }
+    // this tree's notes go at the back, so the merge never overwrites one it has not read
+    long[] merged = new long[size + count];
+    inOrder(merged, count);
+    int i = count;
+    int j = 0;
+    int k = 0;
+    while (i < merged.length || j < count) {
+      if (j == count || (i < merged.length && merged[i] <= sorted[j])) {
+        merged[k++] = merged[i++];
+      }
+      else {
+        merged[k++] = sorted[j++];
+      }
+    }
+    build(merged, k);
+  }
+
+  /**
+   * Copies the packed notes of this tree, in order, into the given array.
+   * @param out     the array to copy into
+   * @param offset  where in the array to put the first note
+   */
+  private void inOrder(long[] out, int at) {
+    NoteCursor c = cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    int k = at;
+    while (c.next()) {
+      out[k++] = ((Cursor) c).current;
+    }
+  }
+
+  /**
+   * Replaces everything in this tree with the given packed notes, building the treap
+   * directly from them in O(n). Slots are handed out in order, so the treap is the
+   * Cartesian tree of the slots' priorities.
+   * @param sorted  the packed notes, sorted from lowest to highest
+   * @param count   how many of the packed notes there are
+   */
+  private void build(long[] sorted, int count) {
+    clear();
+    int pages = (count + PAGE_MASK) >>> PAGE_BITS;
+    keys = new long[pages][];
+    left = new int[pages][];
+    right = new int[pages][];
+    maxEnd = new int[pages][];
+    pitches = new long[pages][];
+    offset = new int[pages][];
+    pageGeneration = new int[pages];
+    tablesShared = false;
+    for (int p = 0; p < pages; p++) {
+      newPage(p);
+    }
+    int[] stack = new int[32];
+    int depth = 0;
+    for (int i = 0; i < count; i++) {
+      setKey(i, sorted[i]);
+      setLeft(i, NIL);
+      setRight(i, NIL);
+      setMaxEnd(i, PackedNote.end(sorted[i]));
+      setPitches(i, pitchBit(PackedNote.pitch(sorted[i])));
+      int last = NIL;
+      while (depth > 0 && priority(stack[depth - 1]) < priority(i)) {
+        last = stack[--depth];
+        update(last);
+      }
+      setLeft(i, last);
+      if (depth > 0) {
+        setRight(stack[depth - 1], i);
+      }
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth * 2);
+      }
+      stack[depth++] = i;
+    }
+    while (depth > 0) {
+      update(stack[--depth]);
+    }
+    root = count == 0 ? NIL : stack[0];
+    used = count;
+    size = count;
+    index.clear(count);
+    for (int i = count - 1; i >= 0; i--) {
+      index.put(PackedNote.identity(sorted[i]), i); // the first slot of each identity wins
+    }
+  }
+
+  /**
+   * Finds a note with the given identity: the same start, duration and pitch.
+   * @param identity  the identity, as given by {@code PackedNote.identity}
+   * @return the slot holding such a note, or {@code NIL} if there is none
+   */
+  int find(long identity) {
+    if (index == null) {
+      return search(identity);
+    }
+    if (offsetsPending && ++searches > size) {
+      normalize();
+    }
+    return offsetsPending ? search(identity) : index.get(identity);
+  }
+
+  /**
+   * Finds a note with the given identity by searching down the tree, in O(log n). In a tree
+   * that can change, the offsets on the way are passed down, so the key of the slot found
+   * is up to date.
+   * @param identity  the identity, as given by {@code PackedNote.identity}
+   * @return the slot holding such a note, or {@code NIL} if there is none
+   */
+  private int search(long identity) {
+    long lo = identity << PackedNote.IDENTITY_SHIFT;
+    return search(lo, lo | ((1L << PackedNote.IDENTITY_SHIFT) - 1));
+  }
+
+  /**
+   * Finds a note that is exactly the given packed note, by searching down the tree, in
+   * O(log n). Unlike {@code find}, the note's instrument and volume must match too.
+   * @param key the packed note
+   * @return the slot holding the note, or {@code NIL} if there is none
+   */
+  int findKey(long key) {
+    return search(key, key);
+  }
+
+  /**
+   * Finds a note whose packed form is between the given bounds, inclusive.
+   */
+  private int search(long lo, long hi) {
+    int t = root;
+    int beats = 0; // the offsets above t, in a frozen tree
+    while (t != NIL) {
+      if (!frozen) {
+        push(t);
+      }
+      long key = PackedNote.shifted(key(t), beats);
+      beats += offset(t);
+      if (key < lo) {
+        t = right(t);
+      }
+      else if (key > hi) {
+        t = left(t);
+      }
+      else {
+        return t;
+      }
+    }
+    return NIL;
+  }
+
+  /**
+   * Moves every note starting at or after the given beat later by the given number of beats,
+   * in O(log n). Moving notes earlier must not take them past a note that is not moved.
+   * @param beat  the first beat to move
+   * @param beats how far to move the notes, which is earlier if negative
+   * @throws IllegalArgumentException if a note would start after {@code PackedNote.MAX_START}
+   */
+  void shiftFrom(int beat, int beats) {
+    checkWritable();
+    if (beat > PackedNote.MAX_START) {
+      return;
+    }
+    int l = split(root, PackedNote.shifted(0, Math.max(0, beat)));
+    int r = splitRight;
+    if (r != NIL && beats > 0 && lastStart(r) > PackedNote.MAX_START - beats) {
+      root = merge(l, r);
+      throw new IllegalArgumentException("Notes cannot start after beat "
+              + PackedNote.MAX_START);
+    }
+    if (r != NIL && beats != 0) {
+      move(r, beats);
+      offsetsPending = true;
+      searches = 0;
+    }
+    root = merge(l, r);
+  }
+
+  /**
+   * Splits the subtree at t into the notes below the given key and the rest.
+   * @param t   the root of the subtree
+   * @param lo  the lowest key of the right part
+   * @return the root of the left part; the root of the right part is left in splitRight
+   */
+  private int split(int t, long lo) {
+    if (t == NIL) {
+      splitRight = NIL;
+      return NIL;
+    }
+    push(t);
+    if (key(t) < lo) {
+      setRight(t, split(right(t), lo));
+      update(t);
+      return t;
+    }
+    else {
+      int l = split(left(t), lo);
+      setLeft(t, splitRight);
+      update(t);
+      splitRight = t;
+      return l;
+    }
+  }
+
+  /**
+   * The start of the last note in the subtree at t.
+   */
+  private int lastStart(int t) {
+    int beats = 0;
+    while (right(t) != NIL) {
+      beats += offset(t);
+      t = right(t);
+    }
+    return PackedNote.start(key(t)) + beats;
+  }
+
+  /**
+   * Moves the node t by the given number of beats, and leaves the same move pending for its
+   * descendants.
+   */
+  private void move(int t, int beats) {
+    setKey(t, PackedNote.shifted(key(t), beats));
+    setMaxEnd(t, maxEnd(t) + beats);
+    setOffset(t, offset(t) + beats);
+  }
+
+  /**
+   * Passes the node t's pending offset down to its children.
+   */
+  private void push(int t) {
+    int beats = offset(t);
+    if (beats != 0) {
+      if (left(t) != NIL) {
+        move(left(t), beats);
+      }
+      if (right(t) != NIL) {
+        move(right(t), beats);
+      }
+      setOffset(t, 0);
+    }
+  }
+
+  /**
+   * Rebuilds this tree from its notes, leaving no offsets pending and the identity index
+   * whole again.
+   */
+  private void normalize() {
+    long[] all = new long[size];
+    inOrder(all, 0);
+    build(all, size);
+  }
+
+  /**
+   * Removes the note in the given slot from this tree.
+   * @param slot  a slot holding a note
+   */
+  void remove(int slot) {
+    root = remove(root, slot);
+    setLeft(slot, free);
+    free = slot;
+    size--;
+    long identity = PackedNote.identity(key(slot));
+    if (!offsetsPending && index.get(identity) == slot) {
+      // another note may have the same identity, and must then be found by its new slot
+      int other = search(identity);
+      if (other == NIL) {
+        index.remove(identity);
+      }
+      else {
+        index.put(identity, other);
+      }
+    }
+  }
+
+  private int remove(int t, int n) {
+    push(t);
+    if (t == n) {
+      return merge(left(t), right(t));
+    }
+    if (compare(n, t) < 0) {
+      setLeft(t, remove(left(t), n));
+    }
+    else {
+      setRight(t, remove(right(t), n));
+    }
+    update(t);
+    return t;
+  }
+
+  private int merge(int a, int b) {
+    if (a == NIL) {
+      return b;
+    }
+    if (b == NIL) {
+      return a;
+    }
+    if (priority(a) > priority(b)) {
+      push(a);
+      setRight(a, merge(right(a), b));
+      update(a);
+      return a;
+    }
+    else {
+      push(b);
+      setLeft(b, merge(a, left(b)));
+      update(b);
+      return b;
+    }
+  }
+
+  /**
+   * All the notes in this tree, in order of their start beat.
+   * @return a new list of the notes
+   */
+  List<Note> toList() {
+    List<Note> result = new ArrayList<>(size);
+    NoteCursor c = cursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    while (c.next()) {
+      result.add(c.toNote());
+    }
+    return result;
+  }
+
+  /**
+   * Adds every note that overlaps the beats [from, to) to the given list, in start order.
+   * A note overlaps if it starts before {@code to} and ends after {@code from}.
+   * @param from  the first beat of the window
+   * @param to    the beat after the last beat of the window
+   * @param out   the list to add the notes to
+   */
+  void overlapping(int from, int to, List<Note> out) {
+    NoteCursor c = cursor(from, to);
+    while (c.next()) {
+      out.add(c.toNote());
+    }
+  }
+
+  /**
+   * A cursor over the notes that overlap the beats [from, to), in start order.
+   * @param from  the first beat of the window
+   * @param to    the beat after the last beat of the window
+   * @return a new cursor
+   */
+  NoteCursor cursor(int from, int to) {
+    return new Cursor(from, to, 0, OctavePitch.COUNT - 1);
+  }
+
+  /**
+   * A cursor over the notes that overlap the beats [from, to) and whose pitch index is in
+   * [low, high], in start order.
+   * @param from  the first beat of the window
+   * @param to    the beat after the last beat of the window
+   * @param low   the index of the lowest pitch to include
+   * @param high  the index of the highest pitch to include
+   * @return a new cursor
+   */
+  NoteCursor cursor(int from, int to, int low, int high) {
+    return new Cursor(from, to, low, high);
+  }
+
+  /**
+   * The bit standing for the given pitch in a mask of pitches. There are more pitches than
+   * bits in a long, so each bit stands for two or three neighbouring pitches.
+   * @param pitch the index of the pitch
+   * @return the mask holding only that pitch's bit
+   */
+  private static long pitchBit(int pitch) {
+    return 1L << (pitch * Long.SIZE / OctavePitch.COUNT);
+  }
+
+  /**
+   * The mask of all the pitches with indices in [low, high].
+   * @param low   the index of the lowest pitch
+   * @param high  the index of the highest pitch
+   * @return the mask, which is 0 if there are no such pitches
+   */
+  private static long pitchMask(int low, int high) {
+    low = Math.max(0, low);
+    high = Math.min(OctavePitch.COUNT - 1, high);
+    if (low > high) {
+      return 0;
+    }
+    long top = pitchBit(high);
+    return (top | (top - 1)) & -pitchBit(low);
+  }
+
+  private int allocate() {
+    if (free != NIL) {
+      int slot = free;
+      free = left(slot);
+      return slot;
+    }
+    if (used == keys.length << PAGE_BITS) {
+      checkWritable();
+      int pages = keys.length + 1;
+      keys = Arrays.copyOf(keys, pages);
+      left = Arrays.copyOf(left, pages);
+      right = Arrays.copyOf(right, pages);
+      maxEnd = Arrays.copyOf(maxEnd, pages);
+      pitches = Arrays.copyOf(pitches, pages);
+      offset = Arrays.copyOf(offset, pages);
+      pageGeneration = Arrays.copyOf(pageGeneration, pages);
+      tablesShared = false;
+      newPage(pages - 1);
+    }
+    return used++;
+  }
+
+  private void newPage(int p) {
+    keys[p] = new long[PAGE_SIZE];
+    left[p] = new int[PAGE_SIZE];
+    right[p] = new int[PAGE_SIZE];
+    maxEnd[p] = new int[PAGE_SIZE];
+    pitches[p] = new long[PAGE_SIZE];
+    offset[p] = new int[PAGE_SIZE];
+    pageGeneration[p] = generation;
+  }
+
+  private void checkWritable() {
+    if (frozen) {
+      throw new IllegalStateException("A frozen tree cannot be changed");
+    }
+  }
+
+  /**
+   * Makes sure the page holding the given slot belongs to this tree alone, copying it (and
+   * the page tables) if a frozen copy may still be looking at it.
+   */
+  private void own(int slot) {
+    checkWritable();
+    if (tablesShared) {
+      keys = keys.clone();
+      left = left.clone();
+      right = right.clone();
+      maxEnd = maxEnd.clone();
+      pitches = pitches.clone();
+      offset = offset.clone();
+      pageGeneration = pageGeneration.clone();
+      tablesShared = false;
+    }
+    int p = slot >>> PAGE_BITS;
+    if (pageGeneration[p] != generation) {
+      keys[p] = keys[p].clone();
+      left[p] = left[p].clone();
+      right[p] = right[p].clone();
+      maxEnd[p] = maxEnd[p].clone();
+      pitches[p] = pitches[p].clone();
+      offset[p] = offset[p].clone();
+      pageGeneration[p] = generation;
+    }
+  }
+
+  private int left(int slot) {
+    return left[slot >>> PAGE_BITS][slot & PAGE_MASK];
+  }
+
+  private int right(int slot) {
+    return right[slot >>> PAGE_BITS][slot & PAGE_MASK];
+  }
+
+  private int maxEnd(int slot) {
+    return maxEnd[slot >>> PAGE_BITS][slot & PAGE_MASK];
+  }
+
+  private long pitches(int slot) {
+    return pitches[slot >>> PAGE_BITS][slot & PAGE_MASK];
+  }
+
+  private int offset(int slot) {
+    return offset[slot >>> PAGE_BITS][slot & PAGE_MASK];
+  }
+
+  private void setKey(int slot, long key) {
+    own(slot);
+    keys[slot >>> PAGE_BITS][slot & PAGE_MASK] = key;
+  }
+
+  private void setLeft(int slot, int t) {
+    own(slot);
+    left[slot >>> PAGE_BITS][slot & PAGE_MASK] = t;
+  }
+
+  private void setRight(int slot, int t) {
+    own(slot);
+    right[slot >>> PAGE_BITS][slot & PAGE_MASK] = t;
+  }
+
+  private void setMaxEnd(int slot, int end) {
+    own(slot);
+    maxEnd[slot >>> PAGE_BITS][slot & PAGE_MASK] = end;
+  }
+
+  private void setPitches(int slot, long mask) {
+    own(slot);
+    pitches[slot >>> PAGE_BITS][slot & PAGE_MASK] = mask;
+  }
+
+  private void setOffset(int slot, int beats) {
+    own(slot);
+    offset[slot >>> PAGE_BITS][slot & PAGE_MASK] = beats;
+  }
+
+  private int compare(int a, int b) {
+    int c = Long.compare(key(a), key(b));
+    return c != 0 ? c : Integer.compare(a, b);
+  }
+
+  private static int priority(int slot) {
+    int h = slot * 0x9E3779B9;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    return h ^ (h >>> 13);
+  }
+
+  private int rotateRight(int t) {
+    int l = left(t);
+    push(t);
+    push(l);
+    setLeft(t, right(l));
+    setRight(l, t);
+    update(t);
+    return l;
+  }
+
+  private int rotateLeft(int t) {
+    int r = right(t);
+    push(t);
+    push(r);
+    setRight(t, left(r));
+    setLeft(r, t);
+    update(t);
+    return r;
+  }
+
+  private void update(int t) {
+    int m = PackedNote.end(key(t));
+    long mask = pitchBit(PackedNote.pitch(key(t)));
+    int beats = offset(t); // not yet added to the children's ends
+    if (left(t) != NIL) {
+      m = Math.max(m, maxEnd(left(t)) + beats);
+      mask |= pitches(left(t));
+    }
+    if (right(t) != NIL) {
+      m = Math.max(m, maxEnd(right(t)) + beats);
+      mask |= pitches(right(t));
+    }
+    setMaxEnd(t, m);
+    setPitches(t, mask);
+  }
+
+  /**
+   * Walks the tree in order with its own stack of slots, skipping every subtree whose notes
+   * all end by the start of the window or that has none of the pitches asked for.
+   */
+  private final class Cursor implements NoteCursor {
+    private final int from;
+    private final int to;
+    private final int low;
+    private final int high;
+    private final long mask;
+    private int[] stack = new int[32];
+    private int[] offsets = new int[32]; // the offsets above each node on the stack
+    private int depth;
+    private long current;
+
+    Cursor(int from, int to, int low, int high) {
+      this.from = from;
+      this.to = to;
+      this.low = low;
+      this.high = high;
+      this.mask = pitchMask(low, high);
+      pushLeft(root, 0);
+    }
+
+    private void pushLeft(int t, int beats) {
+      while (t != NIL && maxEnd(t) + beats > from && (pitches(t) & mask) != 0) {
+        if (depth == stack.length) {
+          stack = Arrays.copyOf(stack, depth * 2);
+          offsets = Arrays.copyOf(offsets, depth * 2);
+        }
+        offsets[depth] = beats;
+        stack[depth++] = t;
+        beats += offset(t);
+        t = left(t);
+      }
+    }
+
+    @Override
+    public boolean next() {
+      while (depth > 0) {
+        int t = stack[--depth];
+        int beats = offsets[depth];
+        long key = PackedNote.shifted(key(t), beats);
+        if (PackedNote.start(key) >= to) {
+          depth = 0;
+          return false;
+        }
+        pushLeft(right(t), beats + offset(t));
+        int pitch = PackedNote.pitch(key);
+        if (PackedNote.end(key) > from && pitch >= low && pitch <= high) {
+          current = key;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int getStart() {
+      return PackedNote.start(current);
+    }
+
+    @Override
+    public int getDuration() {
+      return PackedNote.duration(current);
+    }
+
+    @Override
+    public int getPitchIndex() {
+      return PackedNote.pitch(current);
+    }
+
+    @Override
+    public OctavePitch getPitch() {
+      return OctavePitch.fromIndex(PackedNote.pitch(current));
+    }
+
+    @Override
+    public int getInstrument() {
+      return PackedNote.instrument(current);
+    }
+
+    @Override
+    public int getVolume() {
+      return PackedNote.volume(current);
+    }
+
+    @Override
+    public Note toNote() {
+      return PackedNote.toNote(current);
+    }
+  }
+}
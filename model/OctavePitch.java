@@ -7,12 +7,48 @@ import java.util.Objects;
  */
 public class OctavePitch {
 
-  Pitch pitch;
-  int oct;
+  /**
+   * The number of different OctavePitches, twelve in each of the eleven octaves.
+   */
+  public static final int COUNT = 132;
+
+  private static final int[] ORDER = new int[Pitch.values().length]; // by Pitch ordinal
+  private static final OctavePitch[] TABLE = new OctavePitch[COUNT];
+  private static final String[] NAMES = new String[COUNT];
+  private static final boolean[] SHARP = new boolean[COUNT];
+  private static final int[] KEYS = new int[COUNT]; // each pitch's white or black key index
+  private static final OctavePitch[] WHITE_KEYS = new OctavePitch[COUNT / 12 * 7];
+  private static final OctavePitch[] BLACK_KEYS = new OctavePitch[COUNT / 12 * 5];
+
+  static {
+    for (int i = 0; i < 12; i++) {
+      ORDER[Pitch.pitchOrder.get(i).ordinal()] = i;
+    }
+    int white = 0;
+    int black = 0;
+    for (int i = 0; i < COUNT; i++) {
+      TABLE[i] = new OctavePitch(Pitch.pitchOrder.get(i % 12), i / 12);
+      NAMES[i] = TABLE[i].pitch.name + TABLE[i].oct;
+      SHARP[i] = TABLE[i].pitch.name.contains("#");
+      if (SHARP[i]) {
+        BLACK_KEYS[black] = TABLE[i];
+        KEYS[i] = black++;
+      }
+      else {
+        WHITE_KEYS[white] = TABLE[i];
+        KEYS[i] = white++;
+      }
+    }
+  }
+
+  final Pitch pitch;
+  final int oct;
+  private final int index;
 
 
   /**
-   * Represents a specific pitch in a certain octave.
+   * Represents a specific pitch in a certain octave. {@code of} should be preferred, as it
+   * gives the one shared OctavePitch for the pitch and octave instead of a new one.
    * @param p       The Pitch
    * @param oct     The octave
    */
@@ -24,6 +60,20 @@ public class OctavePitch {
     else {
       throw new IllegalArgumentException("octave must be between 0 and 10, inclusive");
     }
+    this.index = p == null ? -1 : oct * 12 + ORDER[p.ordinal()];
+  }
+
+  /**
+   * The shared OctavePitch for the given pitch and octave.
+   * @param p       The Pitch
+   * @param oct     The octave
+   * @return the OctavePitch
+   */
+  public static OctavePitch of(Pitch p, int oct) {
+    if (oct < 0 || oct > 10) {
+      throw new IllegalArgumentException("octave must be between 0 and 10, inclusive");
+    }
+    return TABLE[oct * 12 + ORDER[p.ordinal()]];
   }
 
   /**
@@ -44,68 +94,74 @@ public class OctavePitch {
   }
 
   /**
-   * Determines the value of this note on a 120 key keyboard, relative to
-   * the type of key that it is (black vs. white).
-   *
-   * @return the value of this note on a 120 key keyboard
+   * This OctavePitch's position among all OctavePitches, counting up by semitones from C0.
+   * It is 12 below the MIDI note number used by the text and MIDI files, as MIDI counts
+   * from C-1.
+   * @return the octave times twelve, plus the place of the pitch in {@code Pitch.pitchOrder}
    */
-  int keyboardValue() {
-    OctavePitch lowestNote = new OctavePitch(Pitch.C,0);
-    int value = 0;
-
-    boolean isSharp = this.toString().contains("#");
-
-    // handle black keys
-    if (isSharp) {
-      int noteDistance = this.distance(lowestNote);
-      for (int i = 0; i < noteDistance; i++) {
-        if (lowestNote.increment().toString().contains("#")) {
-          value++;
-        }
-        lowestNote = lowestNote.increment();
-      }
-    }
+  public int getIndex() {
+    return index;
+  }
 
-    // handle white keys
-    else {
-      int noteDistance = this.distance(lowestNote);
-      for (int i = 0; i < noteDistance; i++) {
-        if (!lowestNote.increment().toString().contains("#")) {
-          value++;
-        }
-        lowestNote = lowestNote.increment();
-      }
-    }
+  /**
+   * The shared OctavePitch at the given position, counting up by semitones from C0.
+   * @param index   the position, from 0 to {@code COUNT} - 1
+   * @return the OctavePitch with that index
+   */
+  public static OctavePitch fromIndex(int index) {
+    return TABLE[index];
+  }
 
-    return value;
+  /**
+   * Whether this OctavePitch is sharp, and so is played on a black key.
+   * @return true if the pitch is sharp
+   */
+  public boolean isSharp() {
+    return SHARP[index];
   }
 
   /**
-   * 
-   * @param compare
-   * @return
+   * This OctavePitch's position among the white keys, counting from C0, if it is not sharp,
+   * or among the black keys, counting from C#0, if it is.
+   * @return the key index, starting from 0
    */
-  private int distance(OctavePitch compare) {
-    int dist = 0;
-    if (this.oct == compare.oct) {
-      dist = Math.abs(Pitch.pitchOrder.indexOf(this.pitch) - Pitch.pitchOrder.indexOf(compare.pitch));
+  public int getKeyIndex() {
+    return KEYS[index];
+  }
 
+  /**
+   * The shared OctavePitch played on the given white key.
+   * @param key the position among the white keys, counting from C0
+   * @return the OctavePitch
+   */
+  public static OctavePitch fromWhiteKey(int key) {
+    if (key < 0 || key >= WHITE_KEYS.length) {
+      throw new IllegalArgumentException("octave must be between 0 and 10, inclusive");
     }
-    else if (this.oct > compare.oct) {
-      OctavePitch op = compare;
-      while (!op.equals(this)) {
-        op = op.increment();
-        dist++;
-      }
-    }
-    else {
-      OctavePitch op = this;
-      while (!op.equals(compare)) {
-        op = op.increment();
-        dist++;
-      }
+    return WHITE_KEYS[key];
+  }
+
+  /**
+   * The shared OctavePitch played on the given black key.
+   * @param key the position among the black keys, counting from C#0
+   * @return the OctavePitch
+   */
+  public static OctavePitch fromBlackKey(int key) {
+    if (key < 0 || key >= BLACK_KEYS.length) {
+      throw new IllegalArgumentException("octave must be between 0 and 10, inclusive");
     }
-    return dist;
+    return BLACK_KEYS[key];
+  }
+
+  /**
+   * Determines the value of this note on a 120 key keyboard, relative to
+   * the type of key that it is (black vs. white).
+   *
+   * @return the value of this note on a 120 key keyboard
+   */
+  int keyboardValue() {
+    // black keys are counted from 1, white keys from 0
+    return SHARP[index] ? KEYS[index] + 1 : KEYS[index];
   }
 
   /**
@@ -115,23 +171,17 @@ public class OctavePitch {
    *         it was calld on
    */
   public OctavePitch increment() {
-
-    OctavePitch op;
-
     if (this.pitch == Pitch.B) {
-      op = new OctavePitch(pitch.next(),oct + 1);
+      return of(pitch.next(), oct + 1);
     }
     else {
-      op = new OctavePitch(pitch.next(),oct);
+      return of(pitch.next(), oct);
     }
-
-    return op;
-
   }
 
   @Override
   public String toString() {
-    return pitch.name + oct;
+    return index == -1 ? pitch.name + oct : NAMES[index];
   }
 
   @Override
@@ -0,0 +1,152 @@
+package cs3500.music.model;
+
+/**
+ * Packs every part of a {@code Note} into a single long, so the model can store its notes
+ * in primitive arrays instead of as objects.
+ *
+ * <p>From the most significant bit down, a packed note holds its start (22 bits), duration
+ * (19 bits), pitch index (8 bits), instrument (7 bits) and volume (7 bits); the sign bit is
+ * always 0. Packed notes therefore sort by start, then duration, then pitch, which is the
+ * order the model keeps its notes in.</p>
+ */
+final class PackedNote {
+
+  static final int MAX_START = (1 << 22) - 1;
+  static final int MAX_DURATION = (1 << 19) - 1;
+
+  private static final int VOLUME_SHIFT = 0;
+  private static final int INSTRUMENT_SHIFT = 7;
+  private static final int PITCH_SHIFT = 14;
+  private static final int DURATION_SHIFT = 22;
+  private static final int START_SHIFT = 41;
+
+  /**
+   * The number of low bits that do not take part in a note's identity, which is its pitch,
+   * start and duration, the same as {@code Note.equals}.
+   */
+  static final int IDENTITY_SHIFT = PITCH_SHIFT;
+
+  private PackedNote() {
+  }
+
+  /**
+   * Packs the given parts of a note into a long.
+   * @param start       the start beat
+   * @param duration    the duration, in beats
+   * @param pitch       the index of the pitch, as given by {@code OctavePitch.getIndex}
+   * @param instrument  the instrument
+   * @param volume      the volume
+   * @return the packed note
+   * @throws IllegalArgumentException if any part is too large to be packed
+   */
+  static long pack(int start, int duration, int pitch, int instrument, int volume) {
+    if (start < 0 || start > MAX_START) {
+      throw new IllegalArgumentException("Note start must be between 0 and " + MAX_START);
+    }
+    if (duration <= 0 || duration > MAX_DURATION) {
+      throw new IllegalArgumentException("Note duration must be between 1 and "
+              + MAX_DURATION);
+    }
+    if (pitch < 0 || pitch >= OctavePitch.COUNT) {
+      throw new IllegalArgumentException("Not a valid pitch index: " + pitch);
+    }
+    if (instrument < 0 || instrument > 127 || volume < 0 || volume > 127) {
+      throw new IllegalArgumentException("Instrument and volume must be between 0 and 127");
+    }
+    return ((long) start << START_SHIFT)
+            | ((long) duration << DURATION_SHIFT)
+            | ((long) pitch << PITCH_SHIFT)
+            | ((long) instrument << INSTRUMENT_SHIFT)
+            | ((long) volume << VOLUME_SHIFT);
+  }
+
+  /**
+   * Packs the given note into a long.
+   * @param n the note to pack
+   * @return the packed note
+   */
+  static long pack(Note n) {
+    return pack(n.getStart(), n.getDuration(), n.getPitch().getIndex(), n.getInstrument(),
+            n.getVolume());
+  }
+
+  /**
+   * The part of a packed note that {@code Note.equals} looks at: its start, duration and
+   * pitch.
+   * @param packed  the packed note
+   * @return the note's identity
+   */
+  static long identity(long packed) {
+    return packed >>> IDENTITY_SHIFT;
+  }
+
+  /**
+   * The packed note moved later by the given number of beats. The result must still start
+   * at a beat from 0 to {@code MAX_START}; this is not checked.
+   * @param packed  the packed note
+   * @param beats   how far to move it, which is earlier if negative
+   * @return the moved packed note
+   */
+  static long shifted(long packed, int beats) {
+    return packed + ((long) beats << START_SHIFT);
+  }
+
+  /**
+   * Whether two packed notes differ in nothing but their duration.
+   * @param a a packed note
+   * @param b another packed note
+   * @return true if only their durations differ, or they are the same
+   */
+  static boolean sameButDuration(long a, long b) {
+    return ((a ^ b) & ~((long) MAX_DURATION << DURATION_SHIFT)) == 0;
+  }
+
+  static int start(long packed) {
+    return (int) (packed >>> START_SHIFT);
+  }
+
+  static int duration(long packed) {
+    return (int) (packed >>> DURATION_SHIFT) & MAX_DURATION;
+  }
+
+  static int end(long packed) {
+    return start(packed) + duration(packed);
+  }
+
+  static int pitch(long packed) {
+    return (int) (packed >>> PITCH_SHIFT) & 0xFF;
+  }
+
+  static int instrument(long packed) {
+    return (int) (packed >>> INSTRUMENT_SHIFT) & 0x7F;
+  }
+
+  static int volume(long packed) {
+    return (int) (packed >>> VOLUME_SHIFT) & 0x7F;
+  }
+
+  /**
+   * Unpacks a packed note into a new {@code Note}.
+   * @param packed  the packed note
+   * @return a note with the same parts
+   */
+  static Note toNote(long packed) {
+    Note n = new Note(OctavePitch.fromIndex(pitch(packed)), start(packed), duration(packed));
+    n.setInstrument(instrument(packed));
+    n.setVolume(volume(packed));
+    return n;
+  }
+
+  /**
+   * Makes the given note the same as a packed note.
+   * @param packed  the packed note
+   * @param n       the note to change
+   */
+  static void copyTo(long packed, Note n) {
+    n.setPitch(OctavePitch.fromIndex(pitch(packed)));
+    n.setStart(start(packed));
+    n.setDuration(duration(packed));
+    n.setInstrument(instrument(packed));
+    n.setVolume(volume(packed));
+  }
+}
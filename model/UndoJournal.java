@@ -0,0 +1,236 @@
+package cs3500.music.model;
+
+/**
+ * The undo and redo history of a {@code MusicModel}. Each change to the model is recorded as
+ * the smallest delta that can be played backward or forward: the packed note added or
+ * removed, the old and new packed note of an edit, the beat and distance of a change of
+ * time, and so on. An action, such as one call on the model or one batch, is one or more
+ * records, and undoing or redoing it plays just those records, so it costs only as much as
+ * the action itself.
+ *
+ * <p>Records are kept in one ring of longs, so the history never holds more memory than it
+ * was given: once the ring is full, the oldest actions are forgotten to make room. Each
+ * record is its payload between two copies of a tag holding its kind, its length and whether
+ * it starts an action, so the ring can be walked backward to undo and forward to redo. The
+ * records before {@code top} can be undone and those from {@code top} to {@code end} can be
+ * redone; recording anything new forgets the ones that could be redone.</p>
+ */
+final class UndoJournal {
+
+  static final int ADD = 1; // payload: the note added
+  static final int REMOVE = 2; // payload: the note removed
+  static final int EDIT = 3; // payload: the note before and after
+  static final int TEMPO = 4; // payload: the tempo before and after
+  static final int TIME = 5; // payload: the first beat moved and how far it moved
+  static final int REPEATS = 6; // payload: how many repeats before, then each before and after
+  static final int ENDING = 7; // payload: the same, for the parts of the multi-ending
+
+  private static final long START = 1 << 8; // set in the tag of the first record of an action
+  private static final int LENGTH_SHIFT = 16;
+
+  /**
+   * Plays a record backward or forward.
+   */
+  interface Replay {
+
+    /**
+     * Undoes or redoes one record.
+     * @param kind    the kind of record, such as {@code ADD}
+     * @param payload the record's payload, from index 0
+     * @param length  the length of the payload
+     * @param undo    true to undo the record, false to redo it
+     */
+    void apply(int kind, long[] payload, int length, boolean undo);
+  }
+
+  private final long[] ring;
+  private final int mask;
+  private long head; // the position of the oldest record kept
+  private long top; // the position after the last record that can be undone
+  private long end; // the position after the last record that can be redone
+  private long current = -1; // the position of the newest action, or -1 if it was forgotten
+  private boolean dropping; // whether the current action was too big to keep
+  private long[] payload = new long[4]; // a payload taken out of the ring
+
+  /**
+   * Constructs an empty history.
+   * @param bytes the most memory the history may hold, which is rounded down to a power of
+   *              two, and is at least 128 bytes
+   */
+  UndoJournal(int bytes) {
+    int size = Integer.highestOneBit(Math.max(16, bytes / 8));
+    this.ring = new long[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Forgets every action.
+   */
+  void clear() {
+    head = 0;
+    top = 0;
+    end = 0;
+    current = -1;
+    dropping = false;
+  }
+
+  /**
+   * Records a change with one value.
+   * @param start whether the change starts a new action
+   * @param kind  the kind of record
+   * @param a     the payload
+   */
+  void record(boolean start, int kind, long a) {
+    payload[0] = a;
+    record(start, kind, payload, 1);
+  }
+
+  /**
+   * Records a change with two values.
+   * @param start whether the change starts a new action
+   * @param kind  the kind of record
+   * @param a     the first value of the payload
+   * @param b     the second value of the payload
+   */
+  void record(boolean start, int kind, long a, long b) {
+    payload[0] = a;
+    payload[1] = b;
+    record(start, kind, payload, 2);
+  }
+
+  /**
+   * Records a change. If the change's action cannot fit even once every older action is
+   * forgotten, the whole history is forgotten along with the rest of that action.
+   * @param start   whether the change starts a new action
+   * @param kind    the kind of record
+   * @param values  the payload, from index 0
+   * @param length  the length of the payload
+   */
+  void record(boolean start, int kind, long[] values, int length) {
+    if (start) {
+      dropping = false;
+    }
+    else if (dropping) {
+      return;
+    }
+    end = top;
+    int size = length + 2;
+    while (top + size - head > ring.length) {
+      if (head == top || (!start && head == current)) {
+        clear();
+        dropping = true;
+        return;
+      }
+      forgetOldest();
+    }
+    if (start) {
+      current = top;
+    }
+    long tag = kind | (start ? START : 0) | ((long) length << LENGTH_SHIFT);
+    ring[(int) top & mask] = tag;
+    for (int i = 0; i < length; i++) {
+      ring[(int) (top + 1 + i) & mask] = values[i];
+    }
+    ring[(int) (top + 1 + length) & mask] = tag;
+    top += size;
+    end = top;
+  }
+
+  /**
+   * Forgets the oldest action.
+   */
+  private void forgetOldest() {
+    do {
+      head += length(ring[(int) head & mask]) + 2;
+    }
+    while (head < top && (ring[(int) head & mask] & START) == 0);
+  }
+
+  /**
+   * Folds a change in the duration of a note into the last action, if that action was just
+   * the adding of that note, or an edit of only its duration, and nothing has been undone
+   * since, so that a note stretched beat by beat as it is drawn is undone all at once. An
+   * edit that also moved the note or changed anything else stays an action of its own.
+   * @param old the note before the change
+   * @param key the note after the change, differing only in its duration
+   * @return true if the change was folded in, false if it must be recorded
+   */
+  boolean extend(long old, long key) {
+    if (top == head || end != top || dropping) {
+      return false;
+    }
+    long tag = ring[(int) (top - 1) & mask];
+    if ((tag & START) == 0) {
+      return false; // the last action has more than one record
+    }
+    int last = (int) (top - 2) & mask; // the last value of the payload
+    int kind = (int) tag & 0xFF;
+    if (ring[last] != old) {
+      return false;
+    }
+    if (kind == ADD || (kind == EDIT
+            && PackedNote.sameButDuration(ring[(int) (top - 3) & mask], old))) {
+      ring[last] = key;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Undoes the last action that has not been undone, playing its records backward.
+   * @param r plays each record
+   * @return true if there was an action to undo
+   */
+  boolean undo(Replay r) {
+    if (top == head) {
+      return false;
+    }
+    current = -1;
+    long tag;
+    do {
+      tag = ring[(int) (top - 1) & mask];
+      int length = length(tag);
+      top -= length + 2;
+      r.apply((int) tag & 0xFF, read(top + 1, length), length, true);
+    }
+    while ((tag & START) == 0 && top > head);
+    return true;
+  }
+
+  /**
+   * Redoes the last action undone, playing its records forward.
+   * @param r plays each record
+   * @return true if there was an action to redo
+   */
+  boolean redo(Replay r) {
+    if (top == end) {
+      return false;
+    }
+    current = -1;
+    do {
+      long tag = ring[(int) top & mask];
+      int length = length(tag);
+      r.apply((int) tag & 0xFF, read(top + 1, length), length, false);
+      top += length + 2;
+    }
+    while (top < end && (ring[(int) top & mask] & START) == 0);
+    return true;
+  }
+
+  /**
+   * Copies a payload out of the ring.
+   */
+  private long[] read(long from, int length) {
+    if (payload.length < length) {
+      payload = new long[Math.max(length, payload.length * 2)];
+    }
+    for (int i = 0; i < length; i++) {
+      payload[i] = ring[(int) (from + i) & mask];
+    }
+    return payload;
+  }
+
+  private static int length(long tag) {
+    return (int) (tag >>> LENGTH_SHIFT);
+  }
+}
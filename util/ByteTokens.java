@@ -0,0 +1,171 @@
+package cs3500.music.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the ASCII text in a range of a byte buffer into words separated by whitespace, and
+ * reads numbers straight from the bytes, without making a String for each word as a
+ * {@code Scanner} would. Strings are only made for the messages of malformed input.
+ */
+final class ByteTokens {
+
+  static final int TEMPO = 0;
+  static final int NOTE = 1;
+  static final int REPEAT = 2;
+  static final int END = 3;
+
+  private static final byte[][] LINE_TYPES = {
+    "tempo".getBytes(StandardCharsets.US_ASCII),
+    "note".getBytes(StandardCharsets.US_ASCII),
+    "repeat".getBytes(StandardCharsets.US_ASCII),
+    "end".getBytes(StandardCharsets.US_ASCII)
+  };
+
+  private static final long NOT_AN_INT = Long.MIN_VALUE; // what parseInt gives for a bad word
+
+  private final ByteBuffer buf;
+  private final int limit;
+  private int pos;
+
+  /**
+   * Constructs a tokenizer over part of a buffer. The buffer's own position is not used.
+   * @param buf   the buffer
+   * @param from  the index of the first byte to read
+   * @param to    the index after the last byte to read
+   */
+  ByteTokens(ByteBuffer buf, int from, int to) {
+    this.buf = buf;
+    this.pos = from;
+    this.limit = to;
+  }
+
+  private static boolean isSpace(int b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+  }
+
+  /**
+   * Skips any whitespace and says whether there is another word.
+   * @return true if there is another word
+   */
+  boolean hasNext() {
+    while (pos < limit && isSpace(buf.get(pos))) {
+      pos++;
+    }
+    return pos < limit;
+  }
+
+  /**
+   * Reads the word that starts a line.
+   * @return the type of line, such as {@code NOTE}
+   * @throws IllegalArgumentException if the word is not a type of line
+   */
+  int lineType() {
+    hasNext();
+    int start = pos;
+    while (pos < limit && !isSpace(buf.get(pos))) {
+      pos++;
+    }
+    for (int type = 0; type < LINE_TYPES.length; type++) {
+      byte[] word = LINE_TYPES[type];
+      if (word.length == pos - start) {
+        int i = 0;
+        while (i < word.length && buf.get(start + i) == word[i]) {
+          i++;
+        }
+        if (i == word.length) {
+          return type;
+        }
+      }
+    }
+    throw new IllegalArgumentException("Bad line type: " + text(start, pos));
+  }
+
+  /**
+   * Whether the next word is a whole number that fits in an int.
+   * @return true if it is
+   */
+  boolean hasNextInt() {
+    if (!hasNext()) {
+      return false;
+    }
+    int start = pos;
+    boolean result = parseInt() != NOT_AN_INT;
+    pos = start;
+    return result;
+  }
+
+  /**
+   * Reads the next word as a whole number.
+   * @param line  the type of line being read, for the message if the word is not a number
+   * @return the number
+   * @throws IllegalArgumentException if there is no next word or it is not a number
+   */
+  int nextInt(String line) {
+    if (hasNext()) {
+      int start = pos;
+      long n = parseInt();
+      if (n != NOT_AN_INT) {
+        return (int) n;
+      }
+      pos = start;
+    }
+    throw new IllegalArgumentException("Malformed " + line + " line: " + restOfLine());
+  }
+
+  /**
+   * Reads the word at the current position as an int.
+   * @return the number, or {@code NOT_AN_INT} if the word is not one
+   */
+  private long parseInt() {
+    // an optional sign, as Scanner.nextInt allows
+    boolean negative = pos < limit && buf.get(pos) == '-';
+    if (negative || pos < limit && buf.get(pos) == '+') {
+      pos++;
+    }
+    long n = 0;
+    int digits = 0;
+    while (pos < limit) {
+      int b = buf.get(pos);
+      if (b >= '0' && b <= '9') {
+        n = n * 10 + (b - '0');
+        if (n > Integer.MAX_VALUE + 1L) {
+          return NOT_AN_INT;
+        }
+        digits++;
+        pos++;
+      }
+      else if (isSpace(b)) {
+        break;
+      }
+      else {
+        return NOT_AN_INT;
+      }
+    }
+    if (digits == 0) {
+      return NOT_AN_INT;
+    }
+    n = negative ? -n : n;
+    return n > Integer.MAX_VALUE ? NOT_AN_INT : n;
+  }
+
+  /**
+   * The rest of the current line, from the current position.
+   * @return the text
+   */
+  String restOfLine() {
+    int end = pos;
+    while (end < limit && buf.get(end) != '\n') {
+      end++;
+    }
+    return text(pos, end).trim();
+  }
+
+  private String text(int from, int to) {
+    byte[] bytes = new byte[to - from];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buf.get(from + i);
+    }
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+}
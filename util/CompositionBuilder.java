@@ -17,6 +17,17 @@ public interface CompositionBuilder<T> {
    */
   T build();
 
+  /**
+   * Sets the signature of the piece, before any notes are added. A builder that cannot set
+   * a signature ignores it.
+   * @param bpm The number of beats in a measure
+   * @param beatLength The kind of note that makes up one beat, such as 4 for a quarter note
+   * @return This builder
+   */
+  default CompositionBuilder<T> setSignature(int bpm, int beatLength) {
+    return this;
+  }
+
   /**
    * Sets the tempo of the piece
    * @param tempo The speed, in microseconds per beat
@@ -0,0 +1,205 @@
+package cs3500.music.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * A helper to read Standard MIDI Files and construct a music composition from them.
+ *
+ * <p>Each note is made from a NOTE_ON and the NOTE_OFF (or NOTE_ON with velocity 0) that
+ * follows it on the same track, channel and key. Its instrument is the program last set on
+ * its channel in that track, or else its channel, as {@code MidiViewImpl} plays it; a
+ * program above 108, the highest instrument a composition can hold, also falls back to the
+ * channel. Its volume is the velocity it was started with. A note started again before it is
+ * stopped is stopped there, and a note never stopped ends with its track. The times of the
+ * events are converted from ticks to beats of the model, a number of beats to each quarter
+ * note, and each tempo event is given to {@code setTempo} in microseconds per beat. A time
+ * signature at the start is given to {@code setSignature} as it is written, its denominator
+ * being the beat length, as {@code MidiWriter} writes it.</p>
+ *
+ * <p>Notes with keys below 12 are left out: they are below C0, the lowest pitch a
+ * composition can hold, and moving them up an octave would change the music.</p>
+ *
+ * <p>The notes being matched are kept in primitive arrays indexed by channel and key, so
+ * nothing is allocated for a note or stop event.</p>
+ */
+public class MidiReader {
+
+  /**
+   * The number of beats to a quarter note if none is given: one beat to a sixteenth note.
+   */
+  public static final int BEATS_PER_QUARTER = 4;
+
+  private static final int TEMPO = 0x51; // the type of a tempo meta event
+  private static final int TIME_SIGNATURE = 0x58; // the type of a time signature meta event
+  private static final int KEYS = 128;
+  private static final int LOWEST_KEY = 12; // C0, the lowest pitch of a composition
+  private static final int MAX_INSTRUMENT = 108; // the highest instrument of a composition
+  private static final int CHANNELS = 16;
+
+  /**
+   * Reads a Standard MIDI File, with {@code BEATS_PER_QUARTER} beats to a quarter note.
+   * @param file  the file to read
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return a musical composition
+   * @throws IOException if the file cannot be read
+   * @throws InvalidMidiDataException if the file is not a MIDI file
+   */
+  public static <T> T parseMidi(Path file, CompositionBuilder<T> piece)
+          throws IOException, InvalidMidiDataException {
+    return parseMidi(MidiSystem.getSequence(file.toFile()), piece, BEATS_PER_QUARTER);
+  }
+
+  /**
+   * Reads a Standard MIDI File.
+   * @param in    the source of the file, which is not closed
+   * @param piece A builder for helping to construct a new composition
+   * @param beatsPerQuarter how many of the model's beats make up a quarter note
+   * @param <T> The main model interface type describing music compositions
+   * @return a musical composition
+   * @throws IOException if the file cannot be read
+   * @throws InvalidMidiDataException if the file is not a MIDI file
+   */
+  public static <T> T parseMidi(InputStream in, CompositionBuilder<T> piece,
+                                int beatsPerQuarter)
+          throws IOException, InvalidMidiDataException {
+    // finding the file's type needs to read ahead and go back
+    InputStream marked = in.markSupported() ? in : new BufferedInputStream(in);
+    return parseMidi(MidiSystem.getSequence(marked), piece, beatsPerQuarter);
+  }
+
+  /**
+   * Reads a sequence of MIDI events, as {@code parseMidi(InputStream, ...)} does.
+   * @param sequence  the sequence
+   * @param piece A builder for helping to construct a new composition
+   * @param beatsPerQuarter how many of the model's beats make up a quarter note
+   * @param <T> The main model interface type describing music compositions
+   * @return a musical composition
+   * @throws IllegalArgumentException if the sequence is not timed in ticks per quarter note
+   */
+  public static <T> T parseMidi(Sequence sequence, CompositionBuilder<T> piece,
+                                int beatsPerQuarter) {
+    if (sequence.getDivisionType() != Sequence.PPQ) {
+      throw new IllegalArgumentException("Only MIDI files timed in ticks per quarter note "
+              + "can be read");
+    }
+    if (beatsPerQuarter <= 0) {
+      throw new IllegalArgumentException("There must be at least one beat to a quarter note");
+    }
+    Ticks ticks = new Ticks(sequence.getResolution(), beatsPerQuarter);
+    setSignature(sequence, piece);
+    long[] started = new long[CHANNELS * KEYS]; // the tick each key started at, or -1
+    int[] velocity = new int[CHANNELS * KEYS];
+    int[] instrument = new int[CHANNELS * KEYS]; // the instrument each key started with
+    int[] program = new int[CHANNELS]; // the program set on each channel, or -1
+    for (Track track : sequence.getTracks()) {
+      Arrays.fill(started, -1);
+      Arrays.fill(program, -1);
+      for (int i = 0; i < track.size(); i++) {
+        MidiEvent e = track.get(i);
+        MidiMessage m = e.getMessage();
+        if (m instanceof ShortMessage) {
+          ShortMessage sm = (ShortMessage) m;
+          int command = sm.getCommand();
+          if (command == ShortMessage.PROGRAM_CHANGE) {
+            program[sm.getChannel()] = sm.getData1() <= MAX_INSTRUMENT ? sm.getData1() : -1;
+            continue;
+          }
+          if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF
+                  || sm.getData1() < LOWEST_KEY) {
+            continue;
+          }
+          int slot = sm.getChannel() * KEYS + sm.getData1();
+          if (started[slot] >= 0) {
+            addNote(piece, ticks, slot, started[slot], e.getTick(), instrument[slot],
+                    velocity[slot]);
+            started[slot] = -1;
+          }
+          if (command == ShortMessage.NOTE_ON && sm.getData2() > 0) {
+            started[slot] = e.getTick();
+            velocity[slot] = sm.getData2();
+            int channel = sm.getChannel();
+            instrument[slot] = program[channel] >= 0 ? program[channel] : channel;
+          }
+        }
+        else if (m instanceof MetaMessage && ((MetaMessage) m).getType() == TEMPO) {
+          byte[] data = ((MetaMessage) m).getData();
+          if (data.length == 3) {
+            int perQuarter = (data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+            piece.setTempo(perQuarter / beatsPerQuarter);
+          }
+        }
+      }
+      for (int slot = 0; slot < started.length; slot++) {
+        if (started[slot] >= 0) {
+          addNote(piece, ticks, slot, started[slot], track.ticks(), instrument[slot],
+                  velocity[slot]);
+        }
+      }
+    }
+    return piece.build();
+  }
+
+  /**
+   * Gives the builder a note that sounded between the given ticks, lasting at least a beat.
+   */
+  private static void addNote(CompositionBuilder<?> piece, Ticks ticks, int slot, long from,
+                              long to, int instrument, int volume) {
+    int start = ticks.toBeat(from);
+    int end = Math.max(start + 1, ticks.toBeat(to));
+    piece.addNote(start, end, instrument, slot % KEYS, volume);
+  }
+
+  /**
+   * Gives the builder the time signature the sequence starts with, if it has one.
+   */
+  private static void setSignature(Sequence sequence, CompositionBuilder<?> piece) {
+    for (Track track : sequence.getTracks()) {
+      for (int i = 0; i < track.size() && track.get(i).getTick() == 0; i++) {
+        MidiMessage m = track.get(i).getMessage();
+        if (m instanceof MetaMessage && ((MetaMessage) m).getType() == TIME_SIGNATURE) {
+          byte[] data = ((MetaMessage) m).getData();
+          // the numerator, then the power of two that is the denominator
+          if (data.length >= 2 && data[0] != 0 && data[1] >= 0 && data[1] <= 6) {
+            piece.setSignature(data[0] & 0xFF, 1 << data[1]);
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts ticks of a sequence to beats of the model, to the nearest beat.
+   */
+  private static final class Ticks {
+    private final long resolution; // ticks per quarter note
+    private final long beatsPerQuarter;
+
+    Ticks(int resolution, int beatsPerQuarter) {
+      this.resolution = Math.max(1, resolution);
+      this.beatsPerQuarter = beatsPerQuarter;
+    }
+
+    int toBeat(long tick) {
+      long beat = (tick * beatsPerQuarter + resolution / 2) / resolution;
+      if (beat > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("The MIDI file is too long to read");
+      }
+      return (int) beat;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package cs3500.music.util;
+
+import cs3500.music.model.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * A helper to write music compositions out as Standard MIDI Files, to be read back in by
+ * {@code MidiReader}, without playing them.
+ *
+ * <p>The music is written as it is played: each repeat is played once when its mark is
+ * reached, and the multi-ending plays its build-up before each of its endings in turn. Each
+ * instrument is given a channel of its own, set to that instrument with a program change, and
+ * the tempo and time signature are written at the start. Channel 9 is left out, as it only
+ * plays percussion, so at most 15 instruments can be written.</p>
+ */
+public class MidiWriter {
+
+  /**
+   * The number of ticks to a quarter note if none is given.
+   */
+  public static final int TICKS_PER_QUARTER = 480;
+
+  private static final int TEMPO = 0x51; // the type of a tempo meta event
+  private static final int TIME_SIGNATURE = 0x58; // the type of a time signature meta event
+  private static final int PERCUSSION = 9; // the channel kept for percussion
+  private static final int DEFAULT_TEMPO = 500000; // MIDI's own, in microseconds per quarter
+  private static final long MAX_TICK = (1L << 44) - 1; // the most a packed event can hold
+
+  /**
+   * Writes a composition as a Standard MIDI File, with {@code MidiReader.BEATS_PER_QUARTER}
+   * beats to a quarter note.
+   * @param model The composition to write
+   * @param out   Where to write it, which is not closed
+   * @param ticksPerQuarter the resolution of the file, in ticks to a quarter note
+   * @throws IOException if it cannot be written
+   * @throws IllegalArgumentException if the composition cannot be written as MIDI
+   */
+  public static void writeMidi(IMusicModel model, OutputStream out, int ticksPerQuarter)
+          throws IOException {
+    MidiSystem.write(toSequence(model, ticksPerQuarter, MidiReader.BEATS_PER_QUARTER), 0, out);
+  }
+
+  /**
+   * Writes a composition to a Standard MIDI File with {@code TICKS_PER_QUARTER} ticks and
+   * {@code MidiReader.BEATS_PER_QUARTER} beats to a quarter note, replacing the file if it
+   * exists.
+   * @param model The composition to write
+   * @param file  The file to write it to
+   * @throws IOException if it cannot be written
+   * @throws IllegalArgumentException if the composition cannot be written as MIDI
+   */
+  public static void writeMidi(IMusicModel model, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      writeMidi(model, out, TICKS_PER_QUARTER);
+    }
+  }
+
+  /**
+   * Compiles a composition into a single-track sequence of MIDI events.
+   * @param model The composition
+   * @param ticksPerQuarter the resolution of the sequence, in ticks to a quarter note
+   * @param beatsPerQuarter how many of the model's beats make up a quarter note
+   * @return the sequence
+   * @throws IllegalArgumentException if the composition has more instruments than there are
+   *     channels, a pitch MIDI cannot play, or is too long or too slow for MIDI
+   */
+  public static Sequence toSequence(IMusicModel model, int ticksPerQuarter,
+                                    int beatsPerQuarter) {
+    if (ticksPerQuarter <= 0 || beatsPerQuarter <= 0) {
+      throw new IllegalArgumentException("There must be at least one tick and one beat to a "
+              + "quarter note");
+    }
+    ModelSnapshot snap = model.snapshot(); // read all at once, while the model may change
+    Notes notes = new Notes(snap);
+    Events events = new Events(notes, ticksPerQuarter, beatsPerQuarter);
+    unroll(snap, notes.end, events);
+    // MIDI cannot play a tempo that is not positive, such as one never set, so MIDI's own
+    // default is written instead
+    long perQuarter = snap.getTempo() > 0 ? (long) snap.getTempo() * beatsPerQuarter
+            : DEFAULT_TEMPO;
+    if (perQuarter > 0xFFFFFF) {
+      throw new IllegalArgumentException("The tempo is too slow to write as MIDI");
+    }
+    try {
+      Sequence sequence = new Sequence(Sequence.PPQ, ticksPerQuarter);
+      Track track = sequence.createTrack();
+      track.add(new MidiEvent(new MetaMessage(TEMPO, new byte[] {(byte) (perQuarter >> 16),
+        (byte) (perQuarter >> 8), (byte) perQuarter}, 3), 0));
+      addSignature(track, snap.getSig());
+      for (int i = 0; i < notes.channel.length; i++) {
+        if (notes.channel[i] >= 0) {
+          track.add(new MidiEvent(new ShortMessage(ShortMessage.PROGRAM_CHANGE,
+                  notes.channel[i], i, 0), 0));
+        }
+      }
+      events.addTo(track);
+      return sequence;
+    }
+    catch (InvalidMidiDataException e) {
+      throw new IllegalArgumentException("The music cannot be written as MIDI: "
+              + e.getMessage());
+    }
+  }
+
+  /**
+   * Adds the signature to the start of the track, its beats to a measure as the numerator and
+   * its beat length as the denominator, if the beat length is a power of two up to 64, as
+   * MIDI requires.
+   */
+  private static void addSignature(Track track, Signature sig)
+          throws InvalidMidiDataException {
+    if (Integer.bitCount(sig.beatLength) == 1 && sig.beatLength <= 64 && sig.bpm > 0
+            && sig.bpm < 256) {
+      byte power = (byte) Integer.numberOfTrailingZeros(sig.beatLength);
+      track.add(new MidiEvent(new MetaMessage(TIME_SIGNATURE,
+              new byte[] {(byte) sig.bpm, power, 24, 8}, 4), 0));
+    }
+  }
+
+  /**
+   * Plays the composition's sections into the events in the order they are heard.
+   * @param snap   the composition
+   * @param end    the beat its last note ends on
+   * @param events where to play the sections
+   */
+  private static void unroll(ModelSnapshot snap, int end, Events events) {
+    TreeMap<Integer, Repeat> marks = new TreeMap<>(); // repeats not yet taken, by mark
+    for (Repeat r : snap.getRepeats().values()) {
+      marks.put(r.getMark(), r);
+    }
+    List<Repeat> parts = MusicWriter.parts(snap.getMultiEnding());
+    boolean ending = parts.size() > 1; // whether the multi-ending has yet to be played
+    int at = 0;
+    while (true) {
+      Map.Entry<Integer, Repeat> next = marks.higherEntry(at);
+      Repeat buildUp = ending ? parts.get(0) : null;
+      if (buildUp != null && buildUp.getGoBack() >= at
+              && (next == null || buildUp.getGoBack() < next.getKey())) {
+        events.play(at, buildUp.getGoBack());
+        for (Repeat r : parts.subList(1, parts.size())) {
+          events.play(buildUp.getGoBack(), buildUp.getMark());
+          events.play(r.getGoBack(), r.getMark());
+        }
+        at = parts.get(parts.size() - 1).getMark();
+        ending = false;
+      }
+      else if (next != null) {
+        events.play(at, next.getKey());
+        at = next.getValue().getGoBack();
+        marks.remove(next.getKey());
+      }
+      else {
+        events.play(at, end);
+        return;
+      }
+    }
+  }
+
+  /**
+   * The notes of a composition in order of their start beat, held as parallel arrays so each
+   * section can be found with a binary search, and the channel given to each instrument.
+   */
+  private static final class Notes {
+    private final int count;
+    private final int[] start;
+    private final int[] stop; // the beat each note ends on
+    private final int[] key; // the MIDI note number
+    private final int[] noteChannel;
+    private final int[] volume;
+    private final int[] channel = new int[128]; // each instrument's channel, or -1 if unused
+    private final int end; // the beat the last note ends on
+
+    Notes(ModelSnapshot snap) {
+      count = snap.getNoteCount();
+      start = new int[count];
+      stop = new int[count];
+      key = new int[count];
+      noteChannel = new int[count];
+      volume = new int[count];
+      Arrays.fill(channel, -1);
+      int channels = 0;
+      int last = 0;
+      NoteCursor c = snap.cursor();
+      for (int i = 0; c.next(); i++) {
+        start[i] = c.getStart();
+        stop[i] = c.getStart() + c.getDuration();
+        key[i] = c.getPitchIndex() + 12;
+        if (key[i] < 0 || key[i] > 127) {
+          throw new IllegalArgumentException("MIDI cannot play the pitch " + c.getPitch());
+        }
+        int instrument = c.getInstrument();
+        if (channel[instrument] < 0) {
+          if (channels == PERCUSSION) {
+            channels++;
+          }
+          if (channels == 16) {
+            throw new IllegalArgumentException("At most 15 instruments can be written as MIDI");
+          }
+          channel[instrument] = channels++;
+        }
+        noteChannel[i] = channel[instrument];
+        volume[i] = c.getVolume();
+        last = Math.max(last, stop[i]);
+      }
+      end = last;
+    }
+
+    /**
+     * The index of the first note starting on or after the given beat.
+     */
+    int firstFrom(int beat) {
+      int lo = 0;
+      int hi = count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (start[mid] < beat) {
+          lo = mid + 1;
+        }
+        else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  /**
+   * The note events of the music as it is played, each packed into a long as its tick, then
+   * whether it starts a note, then its channel, key and velocity. Sorting them puts them in
+   * order of tick with a note's stop before a start at the same tick, so the events can be
+   * appended to the track in order.
+   */
+  private static final class Events {
+    private final Notes notes;
+    private final long ticksPerQuarter;
+    private final long beatsPerQuarter;
+    private long[] packed = new long[64];
+    private int count;
+    private long played; // the beats played so far
+
+    Events(Notes notes, int ticksPerQuarter, int beatsPerQuarter) {
+      this.notes = notes;
+      this.ticksPerQuarter = ticksPerQuarter;
+      this.beatsPerQuarter = beatsPerQuarter;
+    }
+
+    /**
+     * Plays the notes starting in the beats [from, to) after all that has been played.
+     */
+    void play(int from, int to) {
+      if (to <= from) {
+        return;
+      }
+      for (int i = notes.firstFrom(from); i < notes.count && notes.start[i] < to; i++) {
+        if (notes.volume[i] == 0) {
+          continue; // a NOTE_ON with no velocity would stop the note instead
+        }
+        long at = played + notes.start[i] - from;
+        add(at, 1, i);
+        add(at + notes.stop[i] - notes.start[i], 0, i);
+      }
+      played += to - from;
+    }
+
+    private void add(long beat, int on, int note) {
+      long tick = beat * ticksPerQuarter / beatsPerQuarter;
+      if (tick > MAX_TICK) {
+        throw new IllegalArgumentException("The music is too long to write as MIDI");
+      }
+      if (count == packed.length) {
+        packed = Arrays.copyOf(packed, count * 2);
+      }
+      packed[count++] = tick << 19 | (long) on << 18 | notes.noteChannel[note] << 14
+              | notes.key[note] << 7 | notes.volume[note];
+    }
+
+    /**
+     * Adds the events to the track in order.
+     */
+    void addTo(Track track) throws InvalidMidiDataException {
+      Arrays.sort(packed, 0, count);
+      for (int i = 0; i < count; i++) {
+        long e = packed[i];
+        int command = (e >> 18 & 1) == 1 ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+        track.add(new MidiEvent(new ShortMessage(command, (int) (e >> 14 & 0xF),
+                (int) (e >> 7 & 0x7F), (int) (e & 0x7F)), e >>> 19));
+      }
+    }
+  }
+}
@@ -2,12 +2,27 @@ package cs3500.music.util;
 
 import cs3500.music.model.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A helper to read music data and construct a music composition from it.
  */
 public class MusicReader {
+
+  private static final int REGION = 1 << 30; // the most bytes of a file mapped at once
+  private static final int MIN_CHUNK = 1 << 20; // the fewest bytes read by one parallel task
+
   /**
    * A factory for producing new music compositions, given a source of music and a
    * builder for constructing compositions.
@@ -36,7 +51,7 @@ public class MusicReader {
           try {
             piece.setTempo(scanner.nextInt() / 1000 * 1000);
           } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException("Malformed tempo line: " + scanner.nextLine());
+            throw new IllegalArgumentException("Malformed tempo line: " + restOfLine(scanner));
           }
           break;
         case "repeat":
@@ -45,7 +60,7 @@ public class MusicReader {
             int mark = scanner.nextInt();
             piece.addRepeat(goBack, mark);
           } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException("Malformed repeat line: " + scanner.nextLine());
+            throw new IllegalArgumentException("Malformed repeat line: " + restOfLine(scanner));
           }
           break;
         case "note":
@@ -57,7 +72,7 @@ public class MusicReader {
             int volume = scanner.nextInt();
             piece.addNote(startBeat, endBeat, instrument, pitch, volume);
           } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException("Malformed note line: " + scanner.nextLine());
+            throw new IllegalArgumentException("Malformed note line: " + restOfLine(scanner));
           }
           break;
         case "end":
@@ -68,7 +83,7 @@ public class MusicReader {
             }
             piece.addMultiEnding(ends);
           } catch (NoSuchElementException e) {
-            throw new IllegalArgumentException("Malformed end line: " + scanner.nextLine());
+            throw new IllegalArgumentException("Malformed end line: " + restOfLine(scanner));
           }
           break;
         default:
@@ -78,4 +93,434 @@ public class MusicReader {
 
     return piece.build();
   }
+
+  /**
+   * The rest of the line the scanner is on, for the message of a malformed line.
+   * @param scanner the scanner
+   * @return the rest of the line, which is empty at the end of the input
+   */
+  private static String restOfLine(Scanner scanner) {
+    return scanner.hasNextLine() ? scanner.nextLine() : "";
+  }
+
+  /**
+   * Reads a music composition from a file in the same format as
+   * {@code parseFile(Readable, CompositionBuilder)}, giving the builder the same calls, but
+   * much faster. The file is mapped into memory rather than copied, and each number is read
+   * straight from the bytes, without making a String for each word.
+   *
+   * @param file  the file to read, which must be ASCII text
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return a musical composition
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not in the right format
+   */
+  public static <T> T parseFile(Path file, CompositionBuilder<T> piece) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long at = 0;
+      while (at < size) {
+        MappedByteBuffer buf = map(channel, at, size);
+        parseLines(new ByteTokens(buf, 0, buf.limit()), piece);
+        at += buf.limit();
+      }
+    }
+    return piece.build();
+  }
+
+  /**
+   * Reads a music composition from a file as {@code parseFile(Path, CompositionBuilder)}
+   * does, but on every thread of the common {@code ForkJoinPool}. The file is split at line
+   * ends into chunks, and each chunk is read by a task of its own, which keeps its notes in
+   * runs of the builder's. The tempo, repeat and end lines are given to the builder in the
+   * order they are in the file, after the runs of every note before them, so the builder
+   * sees the lines in the same order as when the file is read on one thread.
+   *
+   * @param file  the file to read, which must be ASCII text
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @param <R> The type of the builder's runs of notes
+   * @return a musical composition
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not in the right format
+   */
+  public static <T, R> T parseFileInParallel(Path file, ParallelCompositionBuilder<T, R> piece)
+          throws IOException {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    List<Chunk<R>> chunks = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      int chunkSize = (int) Math.min(REGION,
+              Math.max(MIN_CHUNK, size / (pool.getParallelism() * 4L) + 1));
+      long at = 0;
+      while (at < size) {
+        MappedByteBuffer buf = map(channel, at, size);
+        int from = 0;
+        while (from < buf.limit()) {
+          int to = Math.min(buf.limit(), from + chunkSize);
+          while (to < buf.limit() && buf.get(to - 1) != '\n') {
+            to++;
+          }
+          Chunk<R> c = new Chunk<>(piece, buf, from, to);
+          pool.execute(c);
+          chunks.add(c);
+          from = to;
+        }
+        at += buf.limit();
+      }
+    }
+    // the chunks are joined in order, so the first error in the file is the one thrown
+    List<R> runs = new ArrayList<>();
+    for (Chunk<R> c : chunks) {
+      c.join();
+      if (c.error != null) {
+        throw c.error;
+      }
+      for (int i = 0; i < c.runs.size(); i++) {
+        runs.add(c.runs.get(i));
+        if (i < c.lines.size()) {
+          piece.addRuns(runs);
+          runs.clear();
+          c.lines.get(i).giveTo(piece);
+        }
+      }
+    }
+    if (!runs.isEmpty()) {
+      piece.addRuns(runs);
+    }
+    return piece.build();
+  }
+
+  /**
+   * Reads a music composition in the binary format written by
+   * {@code MusicWriter.writeBinary}, giving the builder its signature, tempo and notes, and
+   * then its repeats and multi-ending. The whole input is read in one go, and the notes are
+   * decoded into arrays before any is given to the builder; a
+   * {@code ParallelCompositionBuilder} is given them all as one run, already in order.
+   *
+   * @param in    The source of the composition, which is read to its end but not closed
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return a musical composition
+   * @throws IOException if the input cannot be read
+   * @throws IllegalArgumentException if the input is not a binary composition
+   */
+  public static <T> T parseBinary(InputStream in, CompositionBuilder<T> piece)
+          throws IOException {
+    ByteArrayOutputStream all = new ByteArrayOutputStream();
+    byte[] buf = new byte[1 << 16];
+    int n;
+    while ((n = in.read(buf)) > 0) {
+      all.write(buf, 0, n);
+    }
+    return parseBinary(all.toByteArray(), piece);
+  }
+
+  /**
+   * Reads a music composition from a file in the binary format, as
+   * {@code parseBinary(InputStream, CompositionBuilder)} does.
+   *
+   * @param file  The file to read
+   * @param piece A builder for helping to construct a new composition
+   * @param <T> The main model interface type describing music compositions
+   * @return a musical composition
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a binary composition
+   */
+  public static <T> T parseBinary(Path file, CompositionBuilder<T> piece) throws IOException {
+    return parseBinary(Files.readAllBytes(file), piece);
+  }
+
+  private static <T> T parseBinary(byte[] data, CompositionBuilder<T> piece) {
+    BinaryInput in = new BinaryInput(data);
+    for (byte b : MusicWriter.MAGIC) {
+      if (in.u8() != b) {
+        throw new IllegalArgumentException("Not a binary composition");
+      }
+    }
+    int version = in.u8();
+    if (version != MusicWriter.VERSION) {
+      throw new IllegalArgumentException("Unsupported binary composition version: " + version);
+    }
+    int tempo = in.varint();
+    int bpm = in.varint();
+    int beatLength = in.varint();
+    int[] repeats = in.varints(2 * in.count(2));
+    int[] ending = in.varints(2 * in.count(2));
+    int count = in.count(5);
+    int[] starts = new int[count];
+    int[] durations = new int[count];
+    int[] parts = new int[count]; // each note's pitch, instrument and volume, a byte each
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      start += in.varint();
+      starts[i] = start;
+      durations[i] = in.varint();
+      parts[i] = in.u8() << 16 | in.u8() << 8 | in.u8();
+    }
+    piece.setSignature(bpm, beatLength);
+    piece.setTempo(tempo);
+    if (piece instanceof ParallelCompositionBuilder) {
+      addRun((ParallelCompositionBuilder<T, ?>) piece, starts, durations, parts);
+    }
+    else {
+      for (int i = 0; i < count; i++) {
+        piece.addNote(starts[i], starts[i] + durations[i], parts[i] >> 8 & 0xFF,
+                parts[i] >> 16, parts[i] & 0xFF);
+      }
+    }
+    for (int i = 0; i < repeats.length; i += 2) {
+      piece.addRepeat(repeats[i], repeats[i + 1]);
+    }
+    if (ending.length > 0) {
+      List<Repeat> lor = new ArrayList<>();
+      for (int i = 0; i < ending.length; i += 2) {
+        lor.add(new Repeat(ending[i], ending[i + 1]));
+      }
+      piece.addMultiEnding(lor);
+    }
+    return piece.build();
+  }
+
+  /**
+   * Gives a builder decoded notes as one run, which is already in order.
+   */
+  private static <R> void addRun(ParallelCompositionBuilder<?, R> piece, int[] starts,
+                                 int[] durations, int[] parts) {
+    R run = piece.newRun();
+    for (int i = 0; i < starts.length; i++) {
+      piece.addNote(run, starts[i], starts[i] + durations[i], parts[i] >> 8 & 0xFF,
+              parts[i] >> 16, parts[i] & 0xFF);
+    }
+    piece.finishRun(run);
+    piece.addRuns(Collections.singletonList(run));
+  }
+
+  /**
+   * Reads the bytes of a binary composition in order.
+   */
+  private static final class BinaryInput {
+    private final byte[] data;
+    private int pos;
+
+    BinaryInput(byte[] data) {
+      this.data = data;
+    }
+
+    int u8() {
+      if (pos == data.length) {
+        throw new IllegalArgumentException("Truncated binary composition");
+      }
+      return data[pos++] & 0xFF;
+    }
+
+    int varint() {
+      int n = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = u8();
+        n |= (b & 0x7F) << shift;
+        if (b < 0x80) {
+          return n;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint at byte " + (pos - 1));
+    }
+
+    /**
+     * Reads a count of things, each taking at least the given number of bytes, so that a
+     * corrupt count is caught before an array is made for it.
+     */
+    int count(int bytesEach) {
+      int n = varint();
+      if (n < 0 || (long) n * bytesEach > data.length - pos) {
+        throw new IllegalArgumentException("Truncated binary composition");
+      }
+      return n;
+    }
+
+    int[] varints(int n) {
+      int[] result = new int[n];
+      for (int i = 0; i < n; i++) {
+        result[i] = varint();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Maps as much of a file as can be mapped at once, from the given position, ending at the
+   * end of a line unless it reaches the end of the file.
+   * @param channel the open file
+   * @param at      the position to map from, which is the start of a line
+   * @param size    the size of the file
+   * @return the mapped bytes, with their limit at the end of the last whole line
+   * @throws IOException if the file cannot be mapped
+   */
+  private static MappedByteBuffer map(FileChannel channel, long at, long size)
+          throws IOException {
+    long length = Math.min(REGION, size - at);
+    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, at, length);
+    int end = (int) length;
+    if (at + length < size) {
+      // a line cut off at the end of the region is read with the next region
+      while (end > 0 && buf.get(end - 1) != '\n') {
+        end--;
+      }
+      if (end == 0) {
+        throw new IllegalArgumentException("Line too long at byte " + at);
+      }
+      buf.limit(end);
+    }
+    return buf;
+  }
+
+  /**
+   * Reads lines from the given words, giving each to the builder.
+   * @param in    the words
+   * @param piece the builder
+   */
+  private static void parseLines(ByteTokens in, CompositionBuilder<?> piece) {
+    while (in.hasNext()) {
+      switch (in.lineType()) {
+        case ByteTokens.TEMPO:
+          piece.setTempo(in.nextInt("tempo") / 1000 * 1000);
+          break;
+        case ByteTokens.REPEAT:
+          int goBack = in.nextInt("repeat");
+          int mark = in.nextInt("repeat");
+          piece.addRepeat(goBack, mark);
+          break;
+        case ByteTokens.NOTE:
+          int startBeat = in.nextInt("note");
+          int endBeat = in.nextInt("note");
+          int instrument = in.nextInt("note");
+          int pitch = in.nextInt("note");
+          int volume = in.nextInt("note");
+          piece.addNote(startBeat, endBeat, instrument, pitch, volume);
+          break;
+        default:
+          List<Repeat> ends = new ArrayList<>();
+          while (in.hasNextInt()) {
+            ends.add(new Repeat(in.nextInt("end"), in.nextInt("end")));
+          }
+          piece.addMultiEnding(ends);
+          break;
+      }
+    }
+  }
+
+  /**
+   * A line other than a note line, kept by a {@code Chunk} to be given to the builder later.
+   */
+  private static final class Line {
+    private final int type;
+    private final int a;
+    private final int b;
+    private final List<Repeat> ends;
+
+    Line(int type, int a, int b, List<Repeat> ends) {
+      this.type = type;
+      this.a = a;
+      this.b = b;
+      this.ends = ends;
+    }
+
+    void giveTo(CompositionBuilder<?> piece) {
+      switch (type) {
+        case ByteTokens.TEMPO:
+          piece.setTempo(a);
+          break;
+        case ByteTokens.REPEAT:
+          piece.addRepeat(a, b);
+          break;
+        default:
+          piece.addMultiEnding(ends);
+          break;
+      }
+    }
+  }
+
+  /**
+   * The task that reads one chunk of a file. It reads the chunk's lines with
+   * {@code parseLines}, as if it were the builder, putting the notes into the builder's runs
+   * and keeping the other lines; a new run is started after each of those lines, so there
+   * is always one more run than there are lines.
+   *
+   * @param <R> The type of the builder's runs of notes
+   */
+  private static final class Chunk<R> extends RecursiveAction
+          implements CompositionBuilder<Void> {
+    private static final long serialVersionUID = 1L;
+
+    private final ParallelCompositionBuilder<?, R> piece;
+    private final ByteBuffer buf;
+    private final int from;
+    private final int to;
+    private final List<R> runs = new ArrayList<>();
+    private final List<Line> lines = new ArrayList<>();
+    private R run; // the run being read into
+    private RuntimeException error; // what went wrong reading the chunk, if anything
+
+    Chunk(ParallelCompositionBuilder<?, R> piece, ByteBuffer buf, int from, int to) {
+      this.piece = piece;
+      this.buf = buf;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        run = piece.newRun();
+        parseLines(new ByteTokens(buf, from, to), this);
+        piece.finishRun(run);
+        runs.add(run);
+      }
+      catch (RuntimeException e) {
+        // kept to be thrown as it is, rather than as the pool would wrap it
+        error = e;
+      }
+    }
+
+    /**
+     * Keeps a line that is not a note, and starts a new run for the notes after it.
+     */
+    private void keep(Line line) {
+      piece.finishRun(run);
+      runs.add(run);
+      lines.add(line);
+      run = piece.newRun();
+    }
+
+    @Override
+    public Void build() {
+      return null;
+    }
+
+    @Override
+    public CompositionBuilder<Void> setTempo(int tempo) {
+      keep(new Line(ByteTokens.TEMPO, tempo, 0, null));
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Void> addNote(int start, int end, int instrument, int pitch,
+                                            int volume) {
+      piece.addNote(run, start, end, instrument, pitch, volume);
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Void> addRepeat(int goBack, int mark) {
+      keep(new Line(ByteTokens.REPEAT, goBack, mark, null));
+      return this;
+    }
+
+    @Override
+    public CompositionBuilder<Void> addMultiEnding(List<Repeat> lor) {
+      keep(new Line(ByteTokens.END, 0, 0, lor));
+      return this;
+    }
+  }
 }
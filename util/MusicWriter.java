@@ -0,0 +1,151 @@
+package cs3500.music.util;
+
+import cs3500.music.model.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A helper to write music compositions out, to be read back in by {@code MusicReader}.
+ */
+public class MusicWriter {
+
+  static final byte[] MAGIC = {'M', 'U', 'S', 'B'}; // the first bytes of a binary composition
+  static final int VERSION = 1; // the version of the binary format written
+
+  /**
+   * Writes a composition in the binary format read by {@code MusicReader.parseBinary}.
+   *
+   * <p>
+   *   The format is made up of:
+   *   <ul>
+   *     <li>a header: the bytes "MUSB" and a version byte, then the tempo, the signature's
+   *     beats per measure and beat length, the repeats as their goBack and mark, and the
+   *     multi-ending as the number of its parts followed by each part, 0 parts meaning
+   *     none;</li>
+   *     <li>the number of notes, then the notes in order of their start beat, each written as
+   *     how many beats after the last note's start it starts, its duration, and three
+   *     bytes: its MIDI pitch, instrument and volume.</li>
+   *   </ul>
+   *   Every number other than the version and the three bytes of a note is written as a
+   *   varint: seven bits to a byte, lowest first, with the top bit set on every byte but the
+   *   last. Most notes start soon after the last one and are short, so they take five bytes.
+   * </p>
+   * @param model The composition to write
+   * @param out   Where to write it, which is not closed
+   * @throws IOException if it cannot be written
+   */
+  public static void writeBinary(IMusicModel model, OutputStream out) throws IOException {
+    ModelSnapshot snap = model.snapshot(); // read all at once, while the model may change
+    Bytes bytes = new Bytes(out);
+    bytes.write(MAGIC);
+    bytes.u8(VERSION);
+    bytes.varint(snap.getTempo());
+    bytes.varint(snap.getSig().bpm);
+    bytes.varint(snap.getSig().beatLength);
+    Map<Integer, Repeat> repeats = new TreeMap<>(snap.getRepeats());
+    bytes.varint(repeats.size());
+    for (Repeat r : repeats.values()) {
+      bytes.varint(r.getGoBack());
+      bytes.varint(r.getMark());
+    }
+    List<Repeat> parts = parts(snap.getMultiEnding());
+    bytes.varint(parts.size());
+    for (Repeat r : parts) {
+      bytes.varint(r.getGoBack());
+      bytes.varint(r.getMark());
+    }
+    bytes.varint(snap.getNoteCount());
+    NoteCursor c = snap.cursor();
+    int last = 0;
+    while (c.next()) {
+      bytes.varint(c.getStart() - last);
+      bytes.varint(c.getDuration());
+      bytes.u8(c.getPitchIndex() + 12);
+      bytes.u8(c.getInstrument());
+      bytes.u8(c.getVolume());
+      last = c.getStart();
+    }
+    bytes.flush();
+  }
+
+  /**
+   * Writes a composition to a file in the binary format, replacing the file if it exists.
+   * @param model The composition to write
+   * @param file  The file to write it to
+   * @throws IOException if it cannot be written
+   */
+  public static void writeBinary(IMusicModel model, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      writeBinary(model, out);
+    }
+  }
+
+  /**
+   * The repeats a multi-ending is made from, as given to {@code addMultiEnding}.
+   * @param m the multi-ending, or null
+   * @return its build-up followed by its endings, or nothing if it is null
+   */
+  static List<Repeat> parts(MultiEnding m) {
+    List<Repeat> parts = new ArrayList<>();
+    if (m != null) {
+      if (m.getBuildUp() != null) {
+        parts.add(m.getBuildUp());
+      }
+      else if (!m.getEndings().isEmpty()) {
+        // a multi-ending made from two repeats has no build-up; the first just leads in
+        parts.add(new Repeat(0, m.getEndings().get(0).getGoBack()));
+      }
+      parts.addAll(m.getEndings());
+    }
+    return parts;
+  }
+
+  /**
+   * Collects bytes to write and writes them out a buffer at a time.
+   */
+  private static final class Bytes {
+    private final OutputStream out;
+    private final byte[] buf = new byte[1 << 16];
+    private int count;
+
+    Bytes(OutputStream out) {
+      this.out = out;
+    }
+
+    void u8(int b) throws IOException {
+      if (count == buf.length) {
+        flush();
+      }
+      buf[count++] = (byte) b;
+    }
+
+    void write(byte[] bytes) throws IOException {
+      for (byte b : bytes) {
+        u8(b);
+      }
+    }
+
+    /**
+     * Writes an int as a varint, taking it as unsigned, so a negative int takes five bytes.
+     */
+    void varint(int n) throws IOException {
+      while ((n & ~0x7F) != 0) {
+        u8((n & 0x7F) | 0x80);
+        n >>>= 7;
+      }
+      u8(n);
+    }
+
+    void flush() throws IOException {
+      out.write(buf, 0, count);
+      count = 0;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package cs3500.music.util;
+
+import java.util.List;
+
+/**
+ * A builder of compositions whose notes can be read on several threads at once. Each thread
+ * adds its notes to a run of its own, which no other thread touches, and finishes it there;
+ * the finished runs are then handed back to the builder, in the order they were read, on
+ * the thread that is building the composition.
+ *
+ * @param <T> The type of the constructed composition
+ * @param <R> The type of a run of notes
+ */
+public interface ParallelCompositionBuilder<T, R> extends CompositionBuilder<T> {
+  /**
+   * Starts a new, empty run of notes. May be called from any thread.
+   * @return the run
+   */
+  R newRun();
+
+  /**
+   * Adds a new note to a run, as {@code addNote} adds one to the piece. Only called by the
+   * thread that the run belongs to.
+   * @param run The run
+   * @param start The start time of the note, in beats
+   * @param end The end time of the note, in beats
+   * @param instrument The instrument number (to be interpreted by MIDI)
+   * @param pitch The pitch (in the range [0, 127], where 60 represents C4)
+   * @param volume The volume (in the range [0, 127])
+   */
+  void addNote(R run, int start, int end, int instrument, int pitch, int volume);
+
+  /**
+   * Finishes a run once all its notes are added, for example by sorting it, on the thread
+   * that the run belongs to.
+   * @param run The run
+   */
+  void finishRun(R run);
+
+  /**
+   * Adds the notes of the given finished runs to the piece, as if each of their notes had
+   * been given to {@code addNote} in turn.
+   * @param runs The runs, in the order they were read
+   * @return this
+   */
+  ParallelCompositionBuilder<T, R> addRuns(List<R> runs);
+}
@@ -62,6 +62,13 @@ public class CompositeView extends JFrame implements IMusicView {
     return this.model;
   }
 
+  @Override
+  public void close() {
+    gui.close();
+    midi.close();
+    dispose();
+  }
+
 
 
 }
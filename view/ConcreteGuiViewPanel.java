@@ -7,9 +7,13 @@ import java.util.List;
 import javax.swing.*;
 
 import cs3500.music.model.Note;
+import cs3500.music.model.NoteCursor;
 import cs3500.music.model.Repeat;
 import cs3500.music.model.OctavePitch;
 import cs3500.music.model.IMusicModel;
+import cs3500.music.model.ModelSnapshot;
+import cs3500.music.model.ModelEvent;
+import cs3500.music.model.ModelListener;
 
 /**
  * A dummy view that simply draws a string
@@ -32,15 +36,30 @@ public class ConcreteGuiViewPanel extends JPanel {
   private int width; // Height of the width
 
   private int currentBeat; // Current beat of red line
-  private Map<Integer, List<Note>> noteMap = new TreeMap<>();
+  private TreeMap<Integer, List<Note>> noteMap = new TreeMap<>();
+  private IMusicModel model;
+  private long mapVersion; // the version of the model the note map was made from
   private boolean practice;
   private List<OctavePitch> notesClicked;
+  private final ModelListener listener = new ModelListener() {
+    @Override
+    public void modelChanged(final ModelEvent e) {
+      // the model may call this from its own thread, and the map is only touched by Swing's
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          updateMap(e);
+        }
+      });
+    }
+  };
 
 
   /**
    * Default constructor for a ConcreteGuiViewPanel.
    */
   public ConcreteGuiViewPanel(IMusicModel model) {
+    this.model = model;
     ops = model.getPitchRange();
     nvp = new NoteViewPanel(model);
     nvp.setMinimumSize(new Dimension(GuiViewFrame.SCROLL_W, GuiViewFrame.SCROLL_H));
@@ -60,6 +79,7 @@ public class ConcreteGuiViewPanel extends JPanel {
     add(scroll);
 
     initMap(model);
+    model.addListener(listener);
 
     height = GuiViewFrame.GUI_H;
     width = GuiViewFrame.GUI_W;
@@ -71,25 +91,58 @@ public class ConcreteGuiViewPanel extends JPanel {
    * value is the list of notes at the beat.
    */
   private void initMap(IMusicModel model) {
-    ArrayList<Note> notesToAdd;
+    noteMap.clear();
+    fillMap(0, model.length() + 1);
+    mapVersion = model.getVersion();
+  }
 
-    for (int i = 0; i <= model.length(); i++) {
-      notesToAdd = new ArrayList<>();
-      for (Note n : model.getNotes()) {
-        if (i >= n.getStart() && i < n.getStart() + n.getDuration()) {
-          notesToAdd.add(n);
-        }
+  /**
+   * Remakes the beats [from, to) of the tree map of notes in one pass over the notes sounding
+   * in them, rather than looking up each beat on its own.
+   *
+   * @param from the first beat to remake
+   * @param to the beat after the last beat to remake
+   */
+  private void fillMap(int from, int to) {
+    for (int i = from; i < to; i++) {
+      noteMap.put(i, new ArrayList<Note>());
+    }
+    NoteCursor c = model.cursor(from, to);
+    while (c.next()) {
+      Note n = c.toNote();
+      int end = Math.min(to, c.getStart() + c.getDuration());
+      for (int i = Math.max(from, c.getStart()); i < end; i++) {
+        noteMap.get(i).add(n);
       }
-      noteMap.put(i,notesToAdd);
     }
   }
 
   /**
-   * Returns the map of notes for this GUI.
+   * Brings the tree map of notes up to date after a change to the model, remaking only the
+   * beats that the change affected.
+   *
+   * @param e the change to the model
+   */
+  private void updateMap(ModelEvent e) {
+    if (e.isNoteChange()) {
+      int last = model.length();
+      noteMap.tailMap(last, false).clear();
+      fillMap(Math.min(e.getStart(), noteMap.size()), Math.min(e.getEnd(), last + 1));
+      repaint();
+    }
+    mapVersion = model.getVersion();
+  }
+
+  /**
+   * Returns the map of notes for this GUI, remaking it first if the model has changed since
+   * it was last made.
    *
    * @return the map of notes
    */
   public Map<Integer, List<Note>> getNoteMap() {
+    if (mapVersion != model.getVersion()) {
+      initMap(model);
+    }
     return this.noteMap;
   }
 
@@ -165,18 +218,18 @@ public class ConcreteGuiViewPanel extends JPanel {
     // and the rightmost note is 70
     List<Note> toDraw = new ArrayList<>();
     if (practice) {
-      for (Note n : noteMap.get(currentBeat)) {
+      for (Note n : getNoteMap().get(currentBeat)) {
         if(!notesClicked.contains(n.getPitch())) {
           toDraw.add(n);
         }
       }
     }
     else {
-      toDraw = noteMap.get(currentBeat);
+      toDraw = getNoteMap().get(currentBeat);
     }
     if (toDraw != null) {
       for (Note n : toDraw) {
-        if (!n.getPitch().toString().contains("#")) {
+        if (!n.getPitch().isSharp()) {
           whiteNoteCounter = n.keyboardValue();
           updateWhiteKeys(whiteNoteCounter, g);
         }
@@ -194,18 +247,18 @@ public class ConcreteGuiViewPanel extends JPanel {
     // and the rightmost note is 50
     List<Note> toDraw = new ArrayList<>();
     if (practice) {
-      for (Note n : noteMap.get(currentBeat)) {
+      for (Note n : getNoteMap().get(currentBeat)) {
         if(!notesClicked.contains(n.getPitch())) {
           toDraw.add(n);
         }
       }
     }
     else {
-      toDraw = noteMap.get(currentBeat);
+      toDraw = getNoteMap().get(currentBeat);
     }
     if (toDraw != null) {
       for (Note n : toDraw) {
-        if (n.getPitch().toString().contains("#")) {
+        if (n.getPitch().isSharp()) {
           blackNoteCounter = n.keyboardValue() - 1;
           updateBlackKeys(blackNoteCounter, g);
         }
@@ -299,6 +352,13 @@ public class ConcreteGuiViewPanel extends JPanel {
     nvp.lineX = newBeat * GuiViewFrame.NOTE_W;
   }
 
+  /**
+   * Stops this panel listening to its model, so that it can be thrown away.
+   */
+  void close() {
+    model.removeListener(listener);
+  }
+
 
   /**
    * Inner class that represents the note view of the Music Editor. It is the viewport of
@@ -309,6 +369,9 @@ public class ConcreteGuiViewPanel extends JPanel {
 
     int lineX = 0;     // Line's initial x position.
     IMusicModel model;
+    private long gridVersion = -1; // the version of the model rMax and cMax were found for
+    private int rMax;
+    private int cMax;
 
     /**
      * Construct a note view panel.
@@ -326,8 +389,9 @@ public class ConcreteGuiViewPanel extends JPanel {
      */
     public void paintComponent(Graphics g) {
       super.paintComponent(g);
-      drawAllNotes(g);
-      drawGrid(g);
+      ModelSnapshot snap = model.snapshot();
+      drawAllNotes(g, snap);
+      drawGrid(g, snap);
       drawRedLine(g);
     }
 
@@ -338,13 +402,31 @@ public class ConcreteGuiViewPanel extends JPanel {
     }
 
     /**
-     * Draw the grid for the note view panel.
+     * Draw all notes in the model.
      *
      * @param g the component's graphics
+     * @param snap  the model as it was when painting began
      */
-    private void drawAllNotes(Graphics g) {
-      for (Note n : model.getNotes()) {
-        drawNote(g, n);
+    private void drawAllNotes(Graphics g, ModelSnapshot snap) {
+      List<OctavePitch> range = snap.getPitchRange();
+      if (range.isEmpty()) {
+        return;
+      }
+      int top = range.get(range.size() - 1).getIndex();
+      // only the notes in the part of the panel being painted are looked at
+      Rectangle clip = g.getClipBounds();
+      NoteCursor c;
+      if (clip == null) {
+        c = snap.cursor();
+      }
+      else {
+        c = snap.notesInRect(clip.x / GuiViewFrame.NOTE_W,
+                (clip.x + clip.width) / GuiViewFrame.NOTE_W + 1,
+                top - (clip.y + clip.height) / GuiViewFrame.NOTE_H,
+                top - clip.y / GuiViewFrame.NOTE_H);
+      }
+      while (c.next()) {
+        drawNote(g, c.getStart(), c.getDuration(), top - c.getPitchIndex());
       }
     }
 
@@ -352,21 +434,25 @@ public class ConcreteGuiViewPanel extends JPanel {
      * Draw the grid for the note view panel.
      *
      * @param g the component's graphics
+     * @param snap  the model as it was when painting began
      */
-    private void drawGrid(Graphics g) {
-      int rMax;
-      int cMax;
-      if (model.length() * GuiViewFrame.NOTE_W < GuiViewFrame.SCROLL_W) {
-        cMax = GuiViewFrame.SCROLL_W / GuiViewFrame.NOTE_W / model.getSig().bpm;
-      }
-      else {
-        cMax = model.length() / model.getSig().bpm;
-      }
-      if (model.getPitchRange().size() * GuiViewFrame.NOTE_H < GuiViewFrame.SCROLL_H) {
-        rMax = GuiViewFrame.SCROLL_H / GuiViewFrame.NOTE_H;
-      }
-      else {
-        rMax = model.getPitchRange().size();
+    private void drawGrid(Graphics g, ModelSnapshot snap) {
+      if (gridVersion != snap.getVersion()) {
+        int bpm = snap.getSig().bpm;
+        if (snap.length() * GuiViewFrame.NOTE_W < GuiViewFrame.SCROLL_W) {
+          cMax = GuiViewFrame.SCROLL_W / GuiViewFrame.NOTE_W / bpm;
+        }
+        else {
+          cMax = snap.length() / bpm;
+        }
+        int pitches = snap.getPitchRange().size();
+        if (pitches * GuiViewFrame.NOTE_H < GuiViewFrame.SCROLL_H) {
+          rMax = GuiViewFrame.SCROLL_H / GuiViewFrame.NOTE_H;
+        }
+        else {
+          rMax = pitches;
+        }
+        gridVersion = snap.getVersion();
       }
       g.setColor(Color.black);
       for (int r = 0; r <= rMax; r++) {
@@ -376,13 +462,13 @@ public class ConcreteGuiViewPanel extends JPanel {
       for (int c = 0; c <= cMax; c++) {
         g.drawLine(c * GuiViewFrame.MEASURE_W, 0, c * GuiViewFrame.MEASURE_W, (rMax + 1) * GuiViewFrame.NOTE_H);
       }
-      for (int i : model.getRepeats().keySet()) {
+      for (int i : snap.getRepeats().keySet()) {
         g.fillRect((i + 1) * GuiViewFrame.NOTE_W - 5, 0, 5, GuiViewFrame.NVP_H);
-        g.fillRect(model.getRepeats().get(i).getGoBack() * GuiViewFrame.NOTE_W, 0, 5, GuiViewFrame.NVP_H);
+        g.fillRect(snap.getRepeats().get(i).getGoBack() * GuiViewFrame.NOTE_W, 0, 5, GuiViewFrame.NVP_H);
       }
-      if (model.getMultiEnding() != null) {
-        g.fillRect(model.getMultiEnding().getBuildUp().getGoBack() * GuiViewFrame.NOTE_W, 0, 5, GuiViewFrame.NVP_H);
-        for (Repeat r : model.getMultiEnding().getEndings()) {
+      if (snap.getMultiEnding() != null) {
+        g.fillRect(snap.getMultiEnding().getBuildUp().getGoBack() * GuiViewFrame.NOTE_W, 0, 5, GuiViewFrame.NVP_H);
+        for (Repeat r : snap.getMultiEnding().getEndings()) {
           g.fillRect(r.getGoBack() * GuiViewFrame.NOTE_W - 5, 0, 5, GuiViewFrame.NVP_H);
         }
       }
@@ -392,16 +478,16 @@ public class ConcreteGuiViewPanel extends JPanel {
      * Draw a note onto the note view panel.
      *
      * @param g the component's graphics
-     * @param n the note to draw
+     * @param start the beat the note starts at
+     * @param duration the number of beats the note lasts
+     * @param row the row of the note's pitch, counting down from the highest pitch
      */
-    private void drawNote(Graphics g, Note n) {
+    private void drawNote(Graphics g, int start, int duration, int row) {
       g.setColor(Color.CYAN);
-      g.fillRect(n.getStart() * GuiViewFrame.NOTE_W,
-              (model.getPitchRange().size() - model.getPitchRange().indexOf(n.getPitch()) - 1) * GuiViewFrame.NOTE_H,
-              GuiViewFrame.NOTE_W * n.getDuration(), GuiViewFrame.NOTE_H);
+      g.fillRect(start * GuiViewFrame.NOTE_W, row * GuiViewFrame.NOTE_H,
+              GuiViewFrame.NOTE_W * duration, GuiViewFrame.NOTE_H);
       g.setColor(Color.BLUE);
-      g.fillRect(n.getStart() * GuiViewFrame.NOTE_W,
-              (model.getPitchRange().size() - model.getPitchRange().indexOf(n.getPitch()) - 1) * GuiViewFrame.NOTE_H,
+      g.fillRect(start * GuiViewFrame.NOTE_W, row * GuiViewFrame.NOTE_H,
               GuiViewFrame.NOTE_W, GuiViewFrame.NOTE_H);
     }
 
@@ -492,10 +578,10 @@ public class ConcreteGuiViewPanel extends JPanel {
 
       g.setFont(font);
 
-      for (int i = 0; i <= model.length(); i++) {
-        if (i % model.getSig().bpm == 0) {
-          g.drawString("" + i, i * GuiViewFrame.NOTE_W, 15);
-        }
+      int last = model.length();
+      int bpm = Math.max(1, model.getSig().bpm);
+      for (int i = 0; i <= last; i += bpm) {
+        g.drawString(Integer.toString(i), i * GuiViewFrame.NOTE_W, 15);
       }
     }
 
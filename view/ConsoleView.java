@@ -1,6 +1,16 @@
 package cs3500.music.view;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import cs3500.music.model.IMusicModel;
+import cs3500.music.model.ModelEvent;
+import cs3500.music.model.ModelListener;
 
 /**
  * Renders the console String in the IMusicModel
@@ -8,19 +18,86 @@ import cs3500.music.model.IMusicModel;
 public class ConsoleView implements IMusicView{
 
   IMusicModel model;
+  private List<String> lines; // the header, then a line per beat, or null before rendering
+  // the beats whose lines may be out of date, guarded by the listener, as the model may tell
+  // it of changes from its own thread
+  private int dirtyFrom = Integer.MAX_VALUE; // the first beat whose line may be out of date
+  private int dirtyTo; // the beat after the last beat whose line may be out of date
+  private final ModelListener listener = new ModelListener() {
+    @Override
+    public synchronized void modelChanged(ModelEvent e) {
+      if (e.isNoteChange()) {
+        dirtyFrom = Math.min(dirtyFrom, e.getStart());
+        dirtyTo = Math.max(dirtyTo, e.getEnd());
+      }
+    }
+  };
 
   public ConsoleView(IMusicModel model) {
     this.model = model;
+    model.addListener(listener);
+  }
+
+  /**
+   * The lines of the model's grid, re-rendering only the beats that changed since they were
+   * last rendered, unless the header or the number of beats has changed.
+   * @return the lines, header first
+   */
+  private List<String> lines() {
+    int from;
+    int to;
+    synchronized (listener) {
+      // taken before rendering, so a change made while rendering is rendered next time
+      from = dirtyFrom;
+      to = dirtyTo;
+      dirtyFrom = Integer.MAX_VALUE;
+      dirtyTo = 0;
+    }
+    int rows = model.length() + 1;
+    if (lines == null || lines.size() != rows + 1 || !lines.get(0).equals(render(0, 0))) {
+      lines = new ArrayList<>(Arrays.asList(render(0, rows).split("\n", -1)));
+    }
+    else if (from < Math.min(to, rows)) {
+      String[] fresh = render(from, Math.min(to, rows)).split("\n", -1);
+      for (int i = 1; i < fresh.length; i++) {
+        lines.set(from + i, fresh[i]);
+      }
+    }
+    return lines;
+  }
+
+  private String render(int start, int end) {
+    StringBuilder result = new StringBuilder();
+    try {
+      model.printMusic(result, start, end);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("a StringBuilder cannot fail to append", e);
+    }
+    return result.toString();
   }
 
   @Override
   public String toString() {
-    return model.printMusic();
+    return String.join("\n", lines());
   }
 
   @Override
   public void drawNotes() {
-    System.out.print(model.printMusic());
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+    try {
+      List<String> all = lines();
+      for (int i = 0; i < all.size(); i++) {
+        if (i > 0) {
+          out.write('\n');
+        }
+        out.write(all.get(i));
+      }
+      out.flush();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
   }
 
   @Override
@@ -28,4 +105,9 @@ public class ConsoleView implements IMusicView{
     return this.model;
   }
 
+  @Override
+  public void close() {
+    model.removeListener(listener);
+  }
+
 }
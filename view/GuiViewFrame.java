@@ -15,6 +15,25 @@ public class GuiViewFrame extends javax.swing.JFrame implements IMusicView {
 
   private final ConcreteGuiViewPanel displayPanel;
   IMusicModel model;
+  // whether the notes have changed since the note view was sized; set by the thread sending
+  // the model's events and cleared on the EDT
+  private volatile boolean sizeStale;
+  private final ModelListener listener = new ModelListener() {
+    @Override
+    public void modelChanged(ModelEvent e) {
+      if (e.isNoteChange() && !sizeStale) {
+        sizeStale = true;
+        // the event may come after the controller's own call to setNVPSize, from another
+        // thread, so the resize is made on the EDT once the change can be read
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            setNVPSize();
+          }
+        });
+      }
+    }
+  };
 
   public static final int NOTE_H = 15;
   public static final int NOTE_W = 20;
@@ -35,6 +54,7 @@ public class GuiViewFrame extends javax.swing.JFrame implements IMusicView {
     NVP_H = model.getPitchRange().size() * NOTE_H;
     MEASURE_W = NOTE_W * model.getSig().getBpm();
     NVP_W = (model.length() + 1) * NOTE_W;
+    model.addListener(listener);
     this.displayPanel = new ConcreteGuiViewPanel(model);
     this.setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
     this.add(displayPanel);
@@ -79,9 +99,14 @@ public class GuiViewFrame extends javax.swing.JFrame implements IMusicView {
   }
 
   /**
-   * Resizes the Note View Frame to accommodate new notes.
+   * Resizes the Note View Frame to accommodate new notes, if they have changed since it was
+   * last sized. Called on the EDT.
    */
   public void setNVPSize() {
+    if (!sizeStale) {
+      return;
+    }
+    sizeStale = false;
     NVP_H = model.getPitchRange().size() * NOTE_H;
     NVP_W = (model.length() + 1) * NOTE_W;
     this.getNvp().resize();
@@ -134,4 +159,11 @@ public class GuiViewFrame extends javax.swing.JFrame implements IMusicView {
   public IMusicModel getModel() {
     return this.model;
   }
+
+  @Override
+  public void close() {
+    model.removeListener(listener);
+    displayPanel.close();
+    dispose();
+  }
 }
\ No newline at end of file
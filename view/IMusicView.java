@@ -20,4 +20,10 @@ public interface IMusicView {
    */
   IMusicModel getModel();
 
+  /**
+   * Stops this view listening to its model, so that it can be thrown away. The view should
+   * not be used afterwards.
+   */
+  void close();
+
 }
@@ -1,6 +1,9 @@
 package cs3500.music.view;
 
 import javax.sound.midi.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -13,19 +16,28 @@ public class MidiViewImpl implements IMusicView {
   private final Sequencer seq;
   private Sequence s;
   private Track t;
-  private float bpm;
+  private float bpm = 120; // the MIDI default, until the model sets a tempo
   IMusicModel model;
   public Map<Repeat, Boolean> repeated;
+  private final Map<Note, List<MidiEvent>> tracked = new HashMap<>(); // each note's events
+  private boolean built; // whether the track holds every note in the model
+  private final ModelListener listener = new ModelListener() {
+    @Override
+    public void modelChanged(ModelEvent e) {
+      update(e);
+    }
+  };
 
   public MidiViewImpl(IMusicModel model) throws MidiUnavailableException, InvalidMidiDataException {
     repeated = new HashMap<>();
     for (Repeat r : model.getRepeats().values()) {
       repeated.put(r, false);
     }
-    bpm = 60000000 / model.getTempo();
+    bpm = toBpm(model.getTempo());
     this.seq = MidiSystem.getSequencer();
     initSeq();
     this.model = model;
+    model.addListener(listener);
   }
 
   /**
@@ -36,6 +48,111 @@ public class MidiViewImpl implements IMusicView {
     s = new Sequence(Sequence.PPQ, 1);
     seq.setSequence(s);
     t = s.createTrack();
+    tracked.clear();
+    built = false;
+  }
+
+  /**
+   * Brings the track up to date after a change to the model, adding and removing the events
+   * of only the notes that changed. Nothing is done before the track has been built.
+   * @param e the change to the model
+   */
+  private void update(ModelEvent e) {
+    try {
+      switch (e.getType()) {
+        case NOTE_ADDED:
+          if (built) {
+            playNote(e.getNewNote());
+          }
+          break;
+        case NOTE_REMOVED:
+          if (built) {
+            untrackNote(e.getOldNote());
+          }
+          break;
+        case NOTE_EDITED:
+          if (built) {
+            untrackNote(e.getOldNote());
+            playNote(e.getNewNote());
+          }
+          break;
+        case NOTES_CHANGED:
+          if (built) {
+            retrack(e);
+          }
+          break;
+        case TEMPO_CHANGED:
+          setBpm((int) toBpm(model.getTempo()));
+          break;
+        case REPEATS_CHANGED:
+          for (Repeat r : model.getRepeats().values()) {
+            if (!repeated.containsKey(r)) {
+              repeated.put(r, false);
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    catch (InvalidMidiDataException i) {
+      System.out.print("Something went wrong playing the music.");
+    }
+  }
+
+  /**
+   * Takes the events of the given note out of the track.
+   * @param n the note, as it was when it was added
+   */
+  private void untrackNote(Note n) {
+    List<MidiEvent> events = tracked.get(n);
+    if (events == null) {
+      return;
+    }
+    // notes equal to this one may differ in instrument or volume, so the right pair is found
+    int pair = 0;
+    for (int i = 0; i < events.size(); i += 2) {
+      ShortMessage on = (ShortMessage) events.get(i).getMessage();
+      if (on.getChannel() == n.getInstrument() && on.getData2() == n.getVolume()) {
+        pair = i;
+        break;
+      }
+    }
+    t.remove(events.remove(pair));
+    t.remove(events.remove(pair));
+    if (events.isEmpty()) {
+      tracked.remove(n);
+    }
+  }
+
+  /**
+   * Replaces the events of every note in the region of the given change with the events of
+   * the notes now in the model there.
+   * @param e a change to many notes
+   * @throws InvalidMidiDataException if a note cannot be made into MIDI events
+   */
+  private void retrack(ModelEvent e) throws InvalidMidiDataException {
+    Iterator<Map.Entry<Note, List<MidiEvent>>> it = tracked.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Note, List<MidiEvent>> entry = it.next();
+      if (inRegion(entry.getKey(), e)) {
+        for (MidiEvent me : entry.getValue()) {
+          t.remove(me);
+        }
+        it.remove();
+      }
+    }
+    for (Note n : model.notesInWindow(e.getStart(), e.getEnd())) {
+      if (inRegion(n, e)) {
+        playNote(n);
+      }
+    }
+  }
+
+  private static boolean inRegion(Note n, ModelEvent e) {
+    int pitch = n.getPitch().getIndex();
+    return n.getStart() < e.getEnd() && n.getStart() + n.getDuration() > e.getStart()
+            && pitch >= e.getLowPitch() && pitch <= e.getHighPitch();
   }
 
   public int getSeqTick() {
@@ -48,7 +165,7 @@ public class MidiViewImpl implements IMusicView {
    * @return the int value of the given OctavePitch
    */
   int octavePitchToMidi(OctavePitch op) {
-    return (op.getOct() * 12) + ((Pitch.pitchOrder.indexOf(op.getPitch()) % 12));
+    return op.getIndex();
   }
 
   /**
@@ -94,8 +211,17 @@ public class MidiViewImpl implements IMusicView {
             n.getInstrument(), octavePitchToMidi(n.getPitch()), n.getVolume());
     MidiMessage stop = new ShortMessage(ShortMessage.NOTE_OFF,
             n.getInstrument(), octavePitchToMidi(n.getPitch()), n.getVolume());
-    this.t.add(new MidiEvent(start, n.getStart()));
-    this.t.add(new MidiEvent(stop, n.getStart() + n.getDuration()));
+    MidiEvent on = new MidiEvent(start, n.getStart());
+    MidiEvent off = new MidiEvent(stop, n.getStart() + n.getDuration());
+    this.t.add(on);
+    this.t.add(off);
+    List<MidiEvent> events = tracked.get(n);
+    if (events == null) {
+      events = new ArrayList<>(2);
+      tracked.put(n, events);
+    }
+    events.add(on);
+    events.add(off);
   }
 
   public void playMultiEnding(MultiEnding m) {
@@ -134,6 +260,7 @@ public class MidiViewImpl implements IMusicView {
         System.out.print("Something went wrong playing the music.");
       }
     }
+    built = true;
     startSeq();
     while (seq.isRunning()) {
       int beat = (int) seq.getTickPosition();
@@ -190,6 +317,16 @@ public class MidiViewImpl implements IMusicView {
     }
   }
 
+  /**
+   * Converts a tempo in microseconds per beat to beats per minute, keeping the current bpm
+   * if the tempo has not been set to a positive value.
+   * @param tempo the tempo, in microseconds per beat
+   * @return the tempo in beats per minute
+   */
+  private float toBpm(int tempo) {
+    return tempo > 0 ? 60000000 / tempo : bpm;
+  }
+
   public void setBpm(int b) {
     this.bpm = b;
     seq.setTempoInBPM(bpm);
@@ -199,4 +336,16 @@ public class MidiViewImpl implements IMusicView {
   public IMusicModel getModel() {
     return this.model;
   }
+
+  /**
+   * Stops listening to the model and closes the sequencer.
+   */
+  @Override
+  public void close() {
+    model.removeListener(listener);
+    if (seq.isRunning()) {
+      seq.stop();
+    }
+    seq.close();
+  }
 }